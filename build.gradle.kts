@@ -1,6 +1,7 @@
 plugins {
 	id("java")
 	`maven-publish`
+	id("me.champeau.jmh") version "0.7.3"
 }
 
 group = "cn.taskeren"
@@ -30,6 +31,14 @@ tasks.test {
 	useJUnitPlatform()
 }
 
+jmh {
+	jmhVersion = "1.37"
+	warmupIterations = 3
+	iterations = 5
+	fork = 1
+	resultFormat = "JSON"
+}
+
 publishing {
     publications {
         create<MavenPublication>("mavenJava") {
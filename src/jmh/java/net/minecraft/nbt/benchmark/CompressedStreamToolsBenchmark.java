@@ -0,0 +1,81 @@
+package net.minecraft.nbt.benchmark;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTSizeTracker;
+import net.minecraft.nbt.NBTTagCompound;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompressedStreamToolsBenchmark {
+
+    @Param({ "PLAYER", "CHUNK", "NESTED_ITEMS" })
+    public NBTCorpus corpus;
+
+    private NBTTagCompound compound;
+    private byte[] uncompressed;
+    private byte[] compressed;
+    private ByteArrayOutputStream sink;
+
+    @Setup
+    public void setup() throws IOException {
+        this.compound = this.corpus.create();
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream)) {
+            CompressedStreamTools.write(this.compound, dataOutputStream);
+        }
+        this.uncompressed = byteArrayOutputStream.toByteArray();
+        this.compressed = CompressedStreamTools.compress(this.compound);
+        this.sink = new ByteArrayOutputStream(this.uncompressed.length);
+    }
+
+    @Benchmark
+    public NBTTagCompound read() throws IOException {
+        return CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(this.uncompressed)));
+    }
+
+    @Benchmark
+    public NBTTagCompound readCompressed() throws IOException {
+        return CompressedStreamTools.readCompressed(new ByteArrayInputStream(this.compressed));
+    }
+
+    @Benchmark
+    public NBTTagCompound readBytes() throws IOException {
+        return CompressedStreamTools.read(this.compressed, NBTSizeTracker.UNLIMITED);
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        this.sink.reset();
+        CompressedStreamTools.write(this.compound, new DataOutputStream(this.sink));
+        return this.sink.size();
+    }
+
+    @Benchmark
+    public int writeCompressed() throws IOException {
+        this.sink.reset();
+        CompressedStreamTools.writeCompressed(this.compound, this.sink);
+        return this.sink.size();
+    }
+
+    @Benchmark
+    public byte[] compress() throws IOException {
+        return CompressedStreamTools.compress(this.compound);
+    }
+}
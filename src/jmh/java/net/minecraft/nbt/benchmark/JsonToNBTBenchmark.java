@@ -0,0 +1,37 @@
+package net.minecraft.nbt.benchmark;
+
+import net.minecraft.nbt.JsonToNBT;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonToNBTBenchmark {
+
+    /** The chunk corpus is left out, its byte arrays are printed as "[n bytes]" and cannot be parsed back. */
+    @Param({ "PLAYER", "NESTED_ITEMS" })
+    public NBTCorpus corpus;
+
+    private String text;
+
+    @Setup
+    public void setup() {
+        this.text = this.corpus.create().toString();
+    }
+
+    @Benchmark
+    public NBTBase parse() throws NBTException {
+        return JsonToNBT.func_150315_a(this.text);
+    }
+}
@@ -0,0 +1,204 @@
+package net.minecraft.nbt.benchmark;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+
+import java.util.Random;
+
+/**
+ * Deterministic, realistically shaped compounds used as benchmark inputs.
+ */
+public enum NBTCorpus {
+
+    /** A 1.7.10 player file: inventory, ender chest, position, abilities and attributes. */
+    PLAYER {
+        @Override
+        public NBTTagCompound create(Random random) {
+            NBTTagCompound player = new NBTTagCompound();
+            player.setTag("Pos", doubles(random.nextDouble() * 1000, 64.0, random.nextDouble() * 1000));
+            player.setTag("Motion", doubles(0.0, -0.0784000015258789, 0.0));
+            player.setTag("Rotation", floats(random.nextFloat() * 360.0F, random.nextFloat() * 90.0F));
+            player.setInteger("Dimension", 0);
+            player.setShort("Health", (short) 20);
+            player.setFloat("HealF", 20.0F);
+            player.setInteger("foodLevel", 20);
+            player.setFloat("foodSaturationLevel", 5.0F);
+            player.setInteger("XpLevel", random.nextInt(30));
+            player.setFloat("XpP", random.nextFloat());
+            player.setInteger("XpTotal", random.nextInt(1000));
+            player.setInteger("playerGameType", 0);
+            player.setBoolean("OnGround", true);
+            player.setLong("UUIDMost", random.nextLong());
+            player.setLong("UUIDLeast", random.nextLong());
+            player.setTag("Inventory", items(random, 36, 0));
+            player.setTag("EnderItems", items(random, 27, 0));
+
+            NBTTagCompound abilities = new NBTTagCompound();
+            abilities.setBoolean("invulnerable", false);
+            abilities.setBoolean("mayfly", false);
+            abilities.setBoolean("instabuild", false);
+            abilities.setBoolean("flying", false);
+            abilities.setBoolean("mayBuild", true);
+            abilities.setFloat("flySpeed", 0.05F);
+            abilities.setFloat("walkSpeed", 0.1F);
+            player.setTag("abilities", abilities);
+
+            NBTTagList attributes = new NBTTagList();
+            for (String name : new String[] { "generic.maxHealth", "generic.knockbackResistance",
+                "generic.movementSpeed", "generic.attackDamage" }) {
+                NBTTagCompound attribute = new NBTTagCompound();
+                attribute.setString("Name", name);
+                attribute.setDouble("Base", random.nextDouble());
+                attributes.appendTag(attribute);
+            }
+            player.setTag("Attributes", attributes);
+            return player;
+        }
+    },
+
+    /** An anvil chunk: 16 sections of block arrays plus a height map and a few entities. */
+    CHUNK {
+        @Override
+        public NBTTagCompound create(Random random) {
+            NBTTagCompound level = new NBTTagCompound();
+            level.setInteger("xPos", random.nextInt(64));
+            level.setInteger("zPos", random.nextInt(64));
+            level.setLong("LastUpdate", random.nextLong());
+            level.setBoolean("TerrainPopulated", true);
+            level.setLong("InhabitedTime", random.nextInt(100000));
+            level.setIntArray("HeightMap", ints(random, 256));
+            level.setByteArray("Biomes", bytes(random, 256));
+
+            NBTTagList sections = new NBTTagList();
+            for (int y = 0; y < 16; ++y) {
+                NBTTagCompound section = new NBTTagCompound();
+                section.setByte("Y", (byte) y);
+                section.setByteArray("Blocks", bytes(random, 4096));
+                section.setByteArray("Data", bytes(random, 2048));
+                section.setByteArray("BlockLight", bytes(random, 2048));
+                section.setByteArray("SkyLight", bytes(random, 2048));
+                sections.appendTag(section);
+            }
+            level.setTag("Sections", sections);
+
+            NBTTagList entities = new NBTTagList();
+            for (int i = 0; i < 8; ++i) {
+                NBTTagCompound entity = new NBTTagCompound();
+                entity.setString("id", "Item");
+                entity.setTag("Pos", doubles(random.nextDouble() * 16, random.nextDouble() * 256, random.nextDouble() * 16));
+                entity.setTag("Motion", doubles(0.0, 0.0, 0.0));
+                entity.setTag("Rotation", floats(0.0F, 0.0F));
+                entity.setShort("Age", (short) random.nextInt(6000));
+                entity.setTag("Item", item(random, 0));
+                entities.appendTag(entity);
+            }
+            level.setTag("Entities", entities);
+            level.setTag("TileEntities", new NBTTagList());
+
+            NBTTagCompound chunk = new NBTTagCompound();
+            chunk.setTag("Level", level);
+            return chunk;
+        }
+    },
+
+    /** Containers of items holding further containers, several levels deep. */
+    NESTED_ITEMS {
+        @Override
+        public NBTTagCompound create(Random random) {
+            NBTTagCompound root = new NBTTagCompound();
+            root.setTag("Items", nestedItems(random, 4));
+            return root;
+        }
+    },
+    ;
+
+    /**
+     * Builds the corpus with a fixed seed, so every fork measures the same data.
+     */
+    public NBTTagCompound create() {
+        return create(new Random(0x4E4254L));
+    }
+
+    public abstract NBTTagCompound create(Random random);
+
+    private static NBTTagList nestedItems(Random random, int depth) {
+        NBTTagList list = new NBTTagList();
+        for (int i = 0; i < 4; ++i) {
+            NBTTagCompound item = item(random, i);
+            if (depth > 0) {
+                item.getCompoundTag("tag").setTag("Items", nestedItems(random, depth - 1));
+            }
+            list.appendTag(item);
+        }
+        return list;
+    }
+
+    private static NBTTagList items(Random random, int count, int firstSlot) {
+        NBTTagList list = new NBTTagList();
+        for (int i = 0; i < count; ++i) {
+            list.appendTag(item(random, firstSlot + i));
+        }
+        return list;
+    }
+
+    private static NBTTagCompound item(Random random, int slot) {
+        NBTTagCompound item = new NBTTagCompound();
+        item.setShort("id", (short) (1 + random.nextInt(400)));
+        item.setByte("Count", (byte) (1 + random.nextInt(64)));
+        item.setShort("Damage", (short) random.nextInt(16));
+        item.setByte("Slot", (byte) slot);
+
+        NBTTagCompound tag = new NBTTagCompound();
+        NBTTagList enchantments = new NBTTagList();
+        for (int i = random.nextInt(3); i > 0; --i) {
+            NBTTagCompound enchantment = new NBTTagCompound();
+            enchantment.setShort("id", (short) random.nextInt(64));
+            enchantment.setShort("lvl", (short) (1 + random.nextInt(5)));
+            enchantments.appendTag(enchantment);
+        }
+        tag.setTag("ench", enchantments);
+
+        NBTTagCompound display = new NBTTagCompound();
+        display.setString("Name", "Item #" + random.nextInt(10000));
+        NBTTagList lore = new NBTTagList();
+        lore.appendTag(new NBTTagString("Found at " + random.nextInt(1000) + ", " + random.nextInt(1000)));
+        display.setTag("Lore", lore);
+        tag.setTag("display", display);
+
+        item.setTag("tag", tag);
+        return item;
+    }
+
+    private static NBTTagList doubles(double... values) {
+        NBTTagList list = new NBTTagList();
+        for (double value : values) {
+            list.appendTag(new NBTTagDouble(value));
+        }
+        return list;
+    }
+
+    private static NBTTagList floats(float... values) {
+        NBTTagList list = new NBTTagList();
+        for (float value : values) {
+            list.appendTag(new NBTTagFloat(value));
+        }
+        return list;
+    }
+
+    private static int[] ints(Random random, int length) {
+        int[] array = new int[length];
+        for (int i = 0; i < length; ++i) {
+            array[i] = random.nextInt(256);
+        }
+        return array;
+    }
+
+    private static byte[] bytes(Random random, int length) {
+        byte[] array = new byte[length];
+        random.nextBytes(array);
+        return array;
+    }
+}
@@ -0,0 +1,58 @@
+package net.minecraft.nbt.benchmark;
+
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagCompound;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NBTTagCompoundBenchmark {
+
+    @Param({ "PLAYER", "CHUNK", "NESTED_ITEMS" })
+    public NBTCorpus corpus;
+
+    private NBTTagCompound compound;
+    /** An equal but distinct tree, so equals has to descend instead of short-circuiting on identity. */
+    private NBTTagCompound twin;
+
+    @Setup
+    public void setup() {
+        this.compound = this.corpus.create();
+        this.twin = this.corpus.create();
+    }
+
+    @Benchmark
+    public NBTBase copy() {
+        return this.compound.copy();
+    }
+
+    /**
+     * The item-stack pattern: copy, then change one top-level value.
+     */
+    @Benchmark
+    public NBTTagCompound copyOnWriteAndSet() {
+        NBTTagCompound copy = this.compound.copyOnWrite();
+        copy.setInteger("benchmark", 1);
+        return copy;
+    }
+
+    @Benchmark
+    public boolean equalsTwin() {
+        return this.compound.equals(this.twin);
+    }
+
+    @Benchmark
+    public int hashCodeTree() {
+        return this.compound.hashCode();
+    }
+}
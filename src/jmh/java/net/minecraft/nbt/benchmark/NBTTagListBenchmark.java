@@ -0,0 +1,65 @@
+package net.minecraft.nbt.benchmark;
+
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NBTTagListBenchmark {
+
+    @Param({ "10", "10000" })
+    public int size;
+
+    private NBTTagList doubles;
+    private NBTTagList items;
+
+    @Setup
+    public void setup() {
+        this.doubles = new NBTTagList();
+        for (int i = 0; i < this.size; ++i) {
+            this.doubles.appendTag(new NBTTagDouble(i * 0.5D));
+        }
+        this.items = NBTCorpus.PLAYER.create().getTagList("Inventory", NBTBase.Type.COMPOUND.getId());
+    }
+
+    @Benchmark
+    public double sumDoubles() {
+        double sum = 0.0D;
+        for (int i = 0; i < this.doubles.tagCount(); ++i) {
+            sum += this.doubles.getDouble(i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int countItems() {
+        int count = 0;
+        for (int i = 0; i < this.items.tagCount(); ++i) {
+            NBTTagCompound item = this.items.getCompound(i);
+            count += item.getByte("Count");
+        }
+        return count;
+    }
+
+    @Benchmark
+    public NBTTagList appendDoubles() {
+        NBTTagList list = new NBTTagList();
+        for (int i = 0; i < this.size; ++i) {
+            list.appendTag(new NBTTagDouble(i));
+        }
+        return list;
+    }
+}
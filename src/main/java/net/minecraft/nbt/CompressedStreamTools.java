@@ -1,21 +1,32 @@
 package net.minecraft.nbt;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutput;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
 
 public class CompressedStreamTools {
 
@@ -23,9 +34,18 @@ public class CompressedStreamTools {
      * Load the gzipped compound from the InputStream.
      */
     public static NBTTagCompound readCompressed(InputStream inputStream) throws IOException {
-        try (DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(new GZIPInputStream(
-            inputStream)))) {
-            return read(dataInputStream, NBTSizeTracker.UNLIMITED);
+        return readCompressed(inputStream, CompressionCodec.GZIP);
+    }
+
+    /**
+     * Load the compound from the InputStream, decompressing it with the codec.
+     */
+    public static NBTTagCompound readCompressed(InputStream inputStream, CompressionCodec codec) throws IOException {
+        NBTBlobDecoder decoder = NBTBlobDecoder.acquire();
+        try {
+            return decoder.read(inputStream, codec, NBTSizeTracker.UNLIMITED);
+        } finally {
+            decoder.release();
         }
     }
 
@@ -33,44 +53,175 @@ public class CompressedStreamTools {
      * Write the compound, gzipped, to the OutputStream.
      */
     public static void writeCompressed(NBTTagCompound nbtTagCompound, OutputStream outputStream) throws IOException {
-        try (DataOutputStream dataoutputstream = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(
-            outputStream)))) {
-            write(nbtTagCompound, dataoutputstream);
+        writeCompressed(nbtTagCompound, outputStream, CompressionCodec.GZIP);
+    }
+
+    /**
+     * Write the compound to the OutputStream, compressing it with the codec.
+     */
+    public static void writeCompressed(NBTTagCompound nbtTagCompound, OutputStream outputStream,
+        CompressionCodec codec) throws IOException {
+        NBTBlobEncoder encoder = NBTBlobEncoder.acquire();
+        try {
+            encoder.writeCompressed(nbtTagCompound, codec, outputStream);
+        } finally {
+            encoder.release();
         }
     }
 
+    /**
+     * Write the compound, gzipped, to the OutputStream, encoding and compressing it in parallel on the pool. The
+     * compressed data consists of several gzip members, which gzip readers read back as one stream.
+     */
+    public static void writeCompressed(NBTTagCompound nbtTagCompound, OutputStream outputStream, ForkJoinPool pool)
+        throws IOException {
+        NBTParallelWriter.writeCompressed(nbtTagCompound, outputStream, Deflater.DEFAULT_COMPRESSION, pool);
+    }
+
     public static NBTTagCompound read(byte[] bytes, NBTSizeTracker nbtSizeTracker) throws IOException {
-        try (DataInputStream datainputstream = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new ByteArrayInputStream(
-            bytes))))) {
-            return read(datainputstream, nbtSizeTracker);
-        }
+        return read(bytes, CompressionCodec.GZIP, nbtSizeTracker);
+    }
+
+    public static NBTTagCompound read(byte[] bytes, CompressionCodec codec, NBTSizeTracker nbtSizeTracker)
+        throws IOException {
+        return read(ByteBuffer.wrap(bytes), codec, nbtSizeTracker);
+    }
+
+    /**
+     * Decodes many compressed compounds at once on the executor, each from the position to the limit of its buffer
+     * (wrap byte arrays with {@link ByteBuffer#wrap(byte[])}). Inflaters and buffers are taken from a small pool once
+     * per batch of blobs and reused between them, and blobs that are not needed any more can be released as soon as
+     * their result is done.
+     *
+     * @param trackers gives the size tracker for each blob
+     * @return a future for each blob in the same order, completed with its compound or with what failed decoding it
+     */
+    public static List<CompletableFuture<NBTTagCompound>> readAll(List<ByteBuffer> blobs, CompressionCodec codec,
+        Supplier<NBTSizeTracker> trackers, Executor executor) {
+        return NBTBlobDecoder.readAll(blobs, codec, trackers, executor);
     }
 
     public static byte[] compress(NBTTagCompound nbtTagCompound) throws IOException {
+        return compress(nbtTagCompound, CompressionCodec.GZIP);
+    }
+
+    /**
+     * Gzips the compound in parallel on the pool, see {@link #writeCompressed(NBTTagCompound, OutputStream,
+     * ForkJoinPool)}.
+     */
+    public static byte[] compress(NBTTagCompound nbtTagCompound, ForkJoinPool pool) throws IOException {
         ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        try (DataOutputStream dataOutputStream = new DataOutputStream(new GZIPOutputStream(byteArrayOutputStream))) {
-            write(nbtTagCompound, dataOutputStream);
-        }
+        writeCompressed(nbtTagCompound, byteArrayOutputStream, pool);
         return byteArrayOutputStream.toByteArray();
     }
 
+    public static byte[] compress(NBTTagCompound nbtTagCompound, CompressionCodec codec) throws IOException {
+        NBTBlobEncoder encoder = NBTBlobEncoder.acquire();
+        try {
+            return encoder.compress(nbtTagCompound, codec);
+        } finally {
+            encoder.release();
+        }
+    }
+
+    /**
+     * Writes the compound, uncompressed, so that the file holds either the old or the new compound after a crash.
+     * <p>
+     * The compound is written to a temporary file next to it, forced to the disk and moved over the file atomically,
+     * after which the directory is forced too. Where the file system cannot move atomically the temporary file is
+     * moved over the file with a plain replacing move, and a crash during it may leave the file missing or incomplete.
+     * The temporary file is deleted if anything fails.
+     */
     public static void safeWrite(NBTTagCompound nbtTagCompound, File file) throws IOException {
-        File tempFile = new File(file.getAbsolutePath() + "_tmp");
+        safeWrite(Map.of(file, nbtTagCompound));
+    }
 
-        if (tempFile.exists()) {
-            tempFile.delete();
+    /**
+     * Writes every compound to its file like {@link #safeWrite(NBTTagCompound, File)}, but as one group: all the
+     * temporary files are written before any is forced, so the system can write them out together, and each directory
+     * is forced once after all the moves.
+     * <p>
+     * Each file on its own is replaced atomically, the group is not. None is replaced if writing or forcing any of the
+     * temporary files fails. The files are then replaced in the iteration order of the map, and if a move fails after
+     * others have succeeded, the exception lists the files already replaced and those left as they were. The temporary
+     * files not moved are deleted in either case.
+     */
+    public static void safeWrite(Map<File, NBTTagCompound> files) throws IOException {
+        Map<Path, Path> moves = new LinkedHashMap<>();
+        int moved = 0;
+
+        try {
+            for (Map.Entry<File, NBTTagCompound> entry : files.entrySet()) {
+                Path path = entry.getKey().toPath().toAbsolutePath();
+                Path tempPath = path.resolveSibling(path.getFileName() + "_tmp");
+                moves.put(tempPath, path);
+                writeFile(entry.getValue(), tempPath);
+            }
+
+            for (Path tempPath : moves.keySet()) {
+                try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+            }
+
+            List<Path> targets = new ArrayList<>(moves.values());
+            for (Map.Entry<Path, Path> move : moves.entrySet()) {
+                try {
+                    try {
+                        Files.move(move.getKey(), move.getValue(), StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        Files.move(move.getKey(), move.getValue(), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                } catch (IOException e) {
+                    if (moved == 0) {
+                        throw e;
+                    }
+                    throw new IOException("Replaced " + targets.subList(0, moved) + " but not "
+                        + targets.subList(moved, targets.size()), e);
+                }
+                ++moved;
+            }
+        } finally {
+            int index = 0;
+            for (Path tempPath : moves.keySet()) {
+                if (index++ >= moved) {
+                    try {
+                        Files.deleteIfExists(tempPath);
+                    } catch (IOException e) {
+                        // the exception being thrown says more than this one
+                    }
+                }
+            }
         }
 
-        write(nbtTagCompound, tempFile);
+        Set<Path> directories = new LinkedHashSet<>();
+        for (Path path : moves.values()) {
+            directories.add(path.getParent());
+        }
 
-        if (file.exists()) {
-            file.delete();
+        for (Path directory : directories) {
+            try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException e) {
+                // not every platform can open or force a directory, the moves are as durable as it makes them
+            }
         }
+    }
 
-        if (file.exists()) {
-            throw new IOException("Failed to delete " + file);
-        } else {
-            tempFile.renameTo(file);
+    /**
+     * Encodes the compound in memory and writes it to the file with as few writes as possible.
+     */
+    private static void writeFile(NBTTagCompound nbtTagCompound, Path path) throws IOException {
+        NBTByteBufferOutput output = new NBTByteBufferOutput(8192);
+        write(nbtTagCompound, output);
+        ByteBuffer buffer = output.buffer().flip();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
         }
     }
 
@@ -91,11 +242,99 @@ public class CompressedStreamTools {
         }
     }
 
+    /**
+     * Write the compound, uncompressed, to the DataOutput.
+     */
+    public static void write(NBTTagCompound nbtTagCompound, DataOutput dataOutput) throws IOException {
+        write((NBTBase) nbtTagCompound, dataOutput);
+    }
+
+    /**
+     * Write the compound, uncompressed, to the DataOutput, encoding its nested compounds and lists in parallel on the
+     * pool. The bytes written are the same as those of {@link #write(NBTTagCompound, DataOutput)}. The compound must
+     * not be changed until this returns.
+     */
+    public static void write(NBTTagCompound nbtTagCompound, DataOutput dataOutput, ForkJoinPool pool)
+        throws IOException {
+        NBTParallelWriter.write(nbtTagCompound, dataOutput, pool);
+    }
+
+    /**
+     * Reads an uncompressed compound from the ByteBuffer, starting at its position. The position is advanced past the
+     * compound on success.
+     */
+    public static NBTTagCompound read(ByteBuffer buffer, NBTSizeTracker nbtSizeTracker) throws IOException {
+        NBTByteBufferInput input = new NBTByteBufferInput(buffer);
+        NBTTagCompound nbtTagCompound = read(input, nbtSizeTracker);
+        buffer.position(input.position());
+        return nbtTagCompound;
+    }
+
+    /**
+     * Reads a compound compressed with the codec from the ByteBuffer, between its position and its limit. The position
+     * is advanced past the compressed data on success. Inflaters and buffers are pooled and reused between calls.
+     */
+    public static NBTTagCompound read(ByteBuffer buffer, CompressionCodec codec, NBTSizeTracker nbtSizeTracker)
+        throws IOException {
+        NBTBlobDecoder decoder = NBTBlobDecoder.acquire();
+        try {
+            return decoder.read(buffer, codec, nbtSizeTracker);
+        } finally {
+            decoder.release();
+        }
+    }
+
+    /**
+     * Reads an uncompressed compound from the ByteBuffer, deferring the decoding of nested compounds and lists until
+     * they are first requested through {@link NBTTagCompound#getTag}, {@link NBTTagCompound#getCompoundTag} or
+     * {@link NBTTagCompound#getTagList}. Values that are never requested are written back verbatim.
+     * <p>
+     * The deferred values share the buffer's content, which must not be modified while the compound is in use. The
+     * size tracker is charged for a deferred value when it is first decoded, so it has to outlive the call, and a value
+     * that goes over its budget fails when it is requested. The position is advanced past the compound on success.
+     */
+    public static NBTTagCompound readLazy(ByteBuffer buffer, NBTSizeTracker nbtSizeTracker) throws IOException {
+        NBTByteBufferInput input = new NBTByteBufferInput(buffer, true);
+        NBTTagCompound nbtTagCompound = read(input, nbtSizeTracker);
+        buffer.position(input.position());
+        return nbtTagCompound;
+    }
+
+    /**
+     * Reads a compound compressed with the codec from the ByteBuffer, between its position and its limit, deferring
+     * the decoding of nested compounds and lists like {@link #readLazy(ByteBuffer, NBTSizeTracker)}. The data is
+     * decompressed up front into an array of its own, which the deferred values share. The position is advanced past
+     * the compressed data on success.
+     */
+    public static NBTTagCompound readLazy(ByteBuffer buffer, CompressionCodec codec, NBTSizeTracker nbtSizeTracker)
+        throws IOException {
+        byte[] bytes;
+        NBTBlobDecoder decoder = NBTBlobDecoder.acquire();
+        try {
+            bytes = decoder.decompress(buffer, codec, nbtSizeTracker);
+        } finally {
+            decoder.release();
+        }
+        return readLazy(ByteBuffer.wrap(bytes), nbtSizeTracker);
+    }
+
+    /**
+     * Write the compound, uncompressed, into the ByteBuffer at its position. The position is advanced past the
+     * compound on success.
+     *
+     * @throws java.nio.BufferOverflowException if the compound does not fit into the remaining space
+     */
+    public static void write(NBTTagCompound nbtTagCompound, ByteBuffer buffer) throws IOException {
+        NBTByteBufferOutput output = new NBTByteBufferOutput(buffer);
+        write(nbtTagCompound, output);
+        buffer.position(output.buffer().position());
+    }
+
     private static void write(NBTBase nbtBase, DataOutput dataOutput) throws IOException {
         dataOutput.writeByte(nbtBase.getType());
 
         if (nbtBase.getType() != 0) {
-            dataOutput.writeUTF("");
+            NBTStringCodec.write(dataOutput, "");
             nbtBase.write(dataOutput);
         }
     }
@@ -107,28 +346,207 @@ public class CompressedStreamTools {
         if (b == 0) {
             return new NBTTagEnd();
         } else {
-            NBTSizeTracker.readUTF(nbtSizeTracker, dataInput.readUTF()); //Forge: Count this string.
+            NBTStringCodec.read(dataInput, nbtSizeTracker); //Forge: Count this string.
             return NBTTagCompound.read(b, "", dataInput, i, nbtSizeTracker);
         }
     }
 
-    public static void write(NBTTagCompound nbtTagCompound, File file) throws IOException {
-        try (DataOutputStream dataoutputstream = new DataOutputStream(new FileOutputStream(file))) {
-            write(nbtTagCompound, dataoutputstream);
+    /**
+     * Reads only the given paths out of an uncompressed compound, see {@link NBTPathSelector} for their syntax.
+     * Everything outside the paths is skipped over by its length prefixes instead of being decoded.
+     */
+    public static NBTTagCompound read(DataInput dataInput, Collection<String> paths, NBTSizeTracker nbtSizeTracker)
+        throws IOException {
+        return read(dataInput, NBTPathSelector.compile(paths), nbtSizeTracker);
+    }
+
+    /**
+     * Reads only the parts of an uncompressed compound chosen by the selector. Compile the selector once with
+     * {@link NBTPathSelector#compile} when reading many files with the same paths.
+     */
+    public static NBTTagCompound read(DataInput dataInput, NBTPathSelector selector, NBTSizeTracker nbtSizeTracker)
+        throws IOException {
+        byte b = dataInput.readByte();
+        nbtSizeTracker.accumulateSize(8);
+
+        if (b != 10) {
+            throw new IOException("Root tag must be a named compound tag");
+        } else {
+            NBTStringCodec.read(dataInput, nbtSizeTracker);
+            NBTBase nbtbase = selector.read(b, dataInput, 0, nbtSizeTracker);
+            return nbtbase instanceof NBTTagCompound nbtTagCompound ? nbtTagCompound : new NBTTagCompound();
+        }
+    }
+
+    /**
+     * Streams an uncompressed compound from the DataInput into the visitor instead of building a tree. The same size
+     * accounting and depth limit apply as for {@link #read(DataInput, NBTSizeTracker)}, except for values the visitor
+     * chooses to skip, which are never allocated.
+     */
+    public static void accept(DataInput dataInput, NBTVisitor visitor, NBTSizeTracker nbtSizeTracker)
+        throws IOException {
+        byte b = dataInput.readByte();
+        nbtSizeTracker.accumulateSize(8);
+
+        if (b != 10) {
+            throw new IOException("Root tag must be a named compound tag");
+        } else {
+            NBTStringCodec.read(dataInput, nbtSizeTracker);
+            nbtSizeTracker.accumulate(32, 1);
+            accept(b, dataInput, visitor, 0, nbtSizeTracker);
+        }
+    }
+
+    private static void accept(byte type, DataInput dataInput, NBTVisitor visitor, int depth,
+        NBTSizeTracker nbtSizeTracker) throws IOException {
+        switch (type) {
+            case 1 -> {
+                nbtSizeTracker.accumulateSize(8L);
+                visitor.visitByte(dataInput.readByte());
+            }
+            case 2 -> {
+                nbtSizeTracker.accumulateSize(16L);
+                visitor.visitShort(dataInput.readShort());
+            }
+            case 3 -> {
+                nbtSizeTracker.accumulateSize(32L);
+                visitor.visitInt(dataInput.readInt());
+            }
+            case 4 -> {
+                nbtSizeTracker.accumulateSize(64L);
+                visitor.visitLong(dataInput.readLong());
+            }
+            case 5 -> {
+                nbtSizeTracker.accumulateSize(32L);
+                visitor.visitFloat(dataInput.readFloat());
+            }
+            case 6 -> {
+                nbtSizeTracker.accumulateSize(64L);
+                visitor.visitDouble(dataInput.readDouble());
+            }
+            case 7 -> {
+                int length = dataInput.readInt();
+                nbtSizeTracker.accumulateSize(32 + 8L * length);
+                byte[] value = new byte[length];
+                dataInput.readFully(value);
+                visitor.visitByteArray(value);
+            }
+            case 8 -> {
+                visitor.visitString(NBTStringCodec.read(dataInput, nbtSizeTracker));
+            }
+            case 9 -> {
+                nbtSizeTracker.checkDepth(depth);
+
+                nbtSizeTracker.accumulateSize(8L);
+                byte elementType = dataInput.readByte();
+                nbtSizeTracker.accumulateSize(32);
+                int size = dataInput.readInt();
+
+                if (visitor.visitListStart(elementType, size)) {
+                    for (int i = 0; i < size; ++i) {
+                        nbtSizeTracker.accumulate(32, 1);
+                        accept(elementType, dataInput, visitor, depth + 1, nbtSizeTracker);
+                    }
+                    visitor.visitListEnd();
+                } else {
+                    for (int i = 0; i < size; ++i) {
+                        NBTBase.Type.byId(elementType).skip(dataInput, depth + 1, nbtSizeTracker);
+                    }
+                }
+            }
+            case 10 -> {
+                nbtSizeTracker.checkDepth(depth);
+
+                visitor.visitCompoundStart();
+                byte tagType;
+
+                while ((tagType = dataInput.readByte()) != 0) {
+                    nbtSizeTracker.accumulateSize(8);
+                    int keyLength = dataInput.readUnsignedShort();
+                    String key = NBTKeyPool.readKey(dataInput, keyLength);
+
+                    if (visitor.visitKey(tagType, key)) {
+                        nbtSizeTracker.accumulateSize(16 + 8L * keyLength);
+                        nbtSizeTracker.accumulate(32, 1);
+                        accept(tagType, dataInput, visitor, depth + 1, nbtSizeTracker);
+                    } else {
+                        NBTBase.Type.byId(tagType).skip(dataInput, depth + 1, nbtSizeTracker);
+                    }
+                }
+
+                nbtSizeTracker.accumulateSize(8);
+                visitor.visitCompoundEnd();
+            }
+            case 11 -> {
+                int length = dataInput.readInt();
+                nbtSizeTracker.accumulateSize(32 + 32L * length);
+                int[] value = new int[length];
+                NBTBulkIO.readInts(dataInput, value, length);
+                visitor.visitIntArray(value);
+            }
+            case 0 -> {}
+            default -> throw new IllegalArgumentException("Invalid id " + type);
         }
     }
 
+    public static void write(NBTTagCompound nbtTagCompound, File file) throws IOException {
+        writeFile(nbtTagCompound, file.toPath());
+    }
+
     public static NBTTagCompound read(File file) throws IOException {
         return read(file, NBTSizeTracker.UNLIMITED);
     }
 
+    /**
+     * Reads the compound from the file, uncompressed or gzipped, or returns null if the file does not exist.
+     * <p>
+     * The file is read into a buffer in one transfer and decoded from there. Gzipped files are told apart by their
+     * magic number, which no uncompressed compound starts with.
+     */
     public static NBTTagCompound read(File file, NBTSizeTracker nbtSizeTracker) throws IOException {
         if (!file.exists()) {
             return null;
-        } else {
-            try (DataInputStream dataInputStream = new DataInputStream(new FileInputStream(file))) {
-                return read(dataInputStream, nbtSizeTracker);
-            }
         }
+
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = ByteBuffer.allocate(checkSize(channel.size(), file));
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {}
+            buffer.flip();
+        }
+        return readFile(buffer, nbtSizeTracker);
+    }
+
+    /**
+     * Reads the compound from the file like {@link #read(File, NBTSizeTracker)}, but decodes it from a memory mapping
+     * instead of copying the file into the heap first, which pays off for files of several megabytes.
+     * <p>
+     * The mapping is only released once it is garbage collected. Until then the file cannot be deleted or replaced on
+     * Windows, and it must not be truncated while it is being read, which crashes the JVM on some platforms.
+     */
+    public static NBTTagCompound readMapped(File file, NBTSizeTracker nbtSizeTracker) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, checkSize(channel.size(), file));
+        }
+        return readFile(buffer, nbtSizeTracker);
+    }
+
+    private static int checkSize(long size, File file) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File too large to read: " + file);
+        }
+        return (int) size;
+    }
+
+    private static NBTTagCompound readFile(ByteBuffer buffer, NBTSizeTracker nbtSizeTracker) throws IOException {
+        if (buffer.remaining() >= 2 && buffer.getShort(0) == (short) 0x1f8b) {
+            return read(buffer, CompressionCodec.GZIP, nbtSizeTracker);
+        }
+        return read(buffer, nbtSizeTracker);
     }
 }
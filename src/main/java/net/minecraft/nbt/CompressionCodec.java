@@ -0,0 +1,77 @@
+package net.minecraft.nbt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Wraps the raw streams used by {@link CompressedStreamTools} in a compression format.
+ * <p>
+ * {@link #GZIP} is what Minecraft uses for standalone files and is the default everywhere. Region files store chunks
+ * with {@link #ZLIB}. {@link #lz4(int)} trades ratio for speed and is only readable by this library.
+ */
+public interface CompressionCodec {
+
+    CompressionCodec GZIP = gzip(Deflater.DEFAULT_COMPRESSION, 8192);
+
+    CompressionCodec ZLIB = zlib(Deflater.DEFAULT_COMPRESSION, 8192);
+
+    CompressionCodec DEFLATE = deflate(Deflater.DEFAULT_COMPRESSION, 8192);
+
+    CompressionCodec NONE = new CompressionCodec() {
+
+        @Override
+        public InputStream decompress(InputStream inputStream) {
+            return inputStream;
+        }
+
+        @Override
+        public OutputStream compress(OutputStream outputStream) {
+            return outputStream;
+        }
+    };
+
+    CompressionCodec LZ4 = lz4(65536);
+
+    /**
+     * Wraps the stream so that reading it yields the decompressed bytes. Closing the result closes the stream.
+     */
+    InputStream decompress(InputStream inputStream) throws IOException;
+
+    /**
+     * Wraps the stream so that bytes written to it are compressed. Closing the result finishes the compressed data
+     * and closes the stream.
+     */
+    OutputStream compress(OutputStream outputStream) throws IOException;
+
+    /**
+     * GZIP with the given deflate level (0-9, or -1 for the default) and stream buffer size.
+     */
+    static CompressionCodec gzip(int level, int bufferSize) {
+        return new DeflateCodec(DeflateCodec.Format.GZIP, level, bufferSize);
+    }
+
+    /**
+     * Deflate with a zlib header and checksum, as stored in region files.
+     */
+    static CompressionCodec zlib(int level, int bufferSize) {
+        return new DeflateCodec(DeflateCodec.Format.ZLIB, level, bufferSize);
+    }
+
+    /**
+     * Raw deflate data without any header or checksum.
+     */
+    static CompressionCodec deflate(int level, int bufferSize) {
+        return new DeflateCodec(DeflateCodec.Format.RAW, level, bufferSize);
+    }
+
+    /**
+     * A pure Java LZ4-style block codec compressing {@code blockSize} bytes at a time. Much faster than deflate at a
+     * lower ratio. The framing is specific to this library and not compatible with the LZ4 frame format. Blocks are
+     * at most 16 MiB, and readers refuse larger ones.
+     */
+    static CompressionCodec lz4(int blockSize) {
+        return new LZ4Codec(blockSize);
+    }
+}
@@ -0,0 +1,98 @@
+package net.minecraft.nbt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The deflate based codecs, which differ only in the header and checksum around the compressed data.
+ */
+final class DeflateCodec implements CompressionCodec {
+
+    enum Format {
+        GZIP,
+        ZLIB,
+        RAW
+    }
+
+    private final Format format;
+    private final int level;
+    private final int bufferSize;
+
+    DeflateCodec(Format format, int level, int bufferSize) {
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid deflate level " + level);
+        } else if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive, got " + bufferSize);
+        }
+
+        this.format = format;
+        this.level = level;
+        this.bufferSize = bufferSize;
+    }
+
+    Format format() {
+        return this.format;
+    }
+
+    int level() {
+        return this.level;
+    }
+
+    @Override
+    public InputStream decompress(InputStream inputStream) throws IOException {
+        if (this.format == Format.GZIP) {
+            return new GZIPInputStream(inputStream, this.bufferSize);
+        }
+
+        Inflater inflater = new Inflater(this.format == Format.RAW);
+        return new InflaterInputStream(inputStream, inflater, this.bufferSize) {
+
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (!this.closed) {
+                    this.closed = true;
+                    inflater.end();
+                    super.close();
+                }
+            }
+        };
+    }
+
+    @Override
+    public OutputStream compress(OutputStream outputStream) throws IOException {
+        if (this.format == Format.GZIP) {
+            return new GZIPOutputStream(outputStream, this.bufferSize) {
+                {
+                    this.def.setLevel(DeflateCodec.this.level);
+                }
+            };
+        }
+
+        Deflater deflater = new Deflater(this.level, this.format == Format.RAW);
+        return new DeflaterOutputStream(outputStream, deflater, this.bufferSize) {
+
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (!this.closed) {
+                    this.closed = true;
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            }
+        };
+    }
+}
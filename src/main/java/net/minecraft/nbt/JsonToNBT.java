@@ -400,7 +400,7 @@ public class JsonToNBT {
 
                             try {
                                 if (astring.length <= 1) {
-                                    return new NBTTagIntArray(new int[] { Integer.parseInt(s.trim()) });
+                                    return new NBTTagIntArray(new int[] { Integer.parseInt(s.trim()) }, false);
                                 } else {
                                     int[] aint = new int[astring.length];
 
@@ -408,7 +408,7 @@ public class JsonToNBT {
                                         aint[i] = Integer.parseInt(astring[i].trim());
                                     }
 
-                                    return new NBTTagIntArray(aint);
+                                    return new NBTTagIntArray(aint, false);
                                 }
                             } catch (NumberFormatException numberformatexception) {
                                 return new NBTTagString(this.field_150493_b);
@@ -0,0 +1,366 @@
+package net.minecraft.nbt;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A pure Java codec using the LZ4 block format, framed as a magic number followed by blocks of
+ * {@code [int compressed length][int raw length][data]} and a block with raw length 0 at the end. The high bit of the
+ * compressed length marks blocks stored uncompressed because they would not shrink.
+ */
+final class LZ4Codec implements CompressionCodec {
+
+    private static final int MAGIC = 0x4E4C5A34; // NLZ4
+    private static final int STORED = 0x80000000;
+    /** The largest block size, so a corrupt or hostile block header cannot make the reader allocate more. */
+    static final int MAX_BLOCK_SIZE = 1 << 24;
+
+    private static final int MIN_MATCH = 4;
+    /** The last match must start at least this many bytes before the end of a block. */
+    private static final int MATCH_FIND_LIMIT = 12;
+    /** The last bytes of a block are always literals. */
+    private static final int LAST_LITERALS = 5;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 12;
+
+    private final int blockSize;
+
+    LZ4Codec(int blockSize) {
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be between 1 and " + MAX_BLOCK_SIZE + ", got "
+                + blockSize);
+        }
+
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public InputStream decompress(InputStream inputStream) throws IOException {
+        return new BlockInputStream(new DataInputStream(inputStream));
+    }
+
+    @Override
+    public OutputStream compress(OutputStream outputStream) throws IOException {
+        return new BlockOutputStream(new DataOutputStream(outputStream), this.blockSize);
+    }
+
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses {@code src[0, length)} into {@code dst}, which must hold {@link #maxCompressedLength} bytes.
+     *
+     * @return the compressed length
+     */
+    static int compress(byte[] src, int length, byte[] dst, int[] hashTable) {
+        Arrays.fill(hashTable, -1);
+        int anchor = 0;
+        int op = 0;
+
+        if (length >= MATCH_FIND_LIMIT + 1) {
+            int limit = length - MATCH_FIND_LIMIT;
+            int matchLimit = length - LAST_LITERALS;
+            int ip = 0;
+            int misses = 0;
+
+            while (ip < limit) {
+                int sequence = readIntLE(src, ip);
+                int hash = (sequence * -1640531535) >>> (32 - HASH_LOG);
+                int ref = hashTable[hash];
+                hashTable[hash] = ip;
+
+                if (ref < 0 || ip - ref > MAX_DISTANCE || readIntLE(src, ref) != sequence) {
+                    // skip ahead faster the longer nothing matches, as the data is likely incompressible
+                    ip += 1 + (misses++ >>> 6);
+                    continue;
+                }
+
+                misses = 0;
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchLimit && src[ref + matchLength] == src[ip + matchLength]) {
+                    ++matchLength;
+                }
+
+                op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength - MIN_MATCH, dst, op);
+                ip += matchLength;
+                anchor = ip;
+            }
+        }
+
+        int literals = length - anchor;
+        int token = Math.min(literals, 15) << 4;
+        dst[op++] = (byte) token;
+        op = writeLength(literals, dst, op);
+        System.arraycopy(src, anchor, dst, op, literals);
+        return op + literals;
+    }
+
+    private static int writeSequence(byte[] src, int anchor, int literals, int offset, int matchLength, byte[] dst,
+        int op) {
+        dst[op++] = (byte) ((Math.min(literals, 15) << 4) | Math.min(matchLength, 15));
+        op = writeLength(literals, dst, op);
+        System.arraycopy(src, anchor, dst, op, literals);
+        op += literals;
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+        return writeLength(matchLength, dst, op);
+    }
+
+    /**
+     * Writes the part of a length which does not fit in its 4-bit token field.
+     */
+    private static int writeLength(int length, byte[] dst, int op) {
+        if (length >= 15) {
+            length -= 15;
+            while (length >= 255) {
+                dst[op++] = (byte) 255;
+                length -= 255;
+            }
+            dst[op++] = (byte) length;
+        }
+        return op;
+    }
+
+    /**
+     * Decompresses {@code src[0, length)} into {@code dst}, which must be exactly as long as the raw data.
+     */
+    static void decompress(byte[] src, int length, byte[] dst, int rawLength) throws IOException {
+        int ip = 0;
+        int op = 0;
+
+        try {
+            while (true) {
+                int token = src[ip++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+
+                if (ip + literals > length || op + literals > rawLength) {
+                    throw new IOException("Corrupt LZ4 block, literals out of bounds");
+                }
+                System.arraycopy(src, ip, dst, op, literals);
+                ip += literals;
+                op += literals;
+
+                if (ip == length) {
+                    break;
+                }
+
+                int offset = (src[ip++] & 0xFF) | (src[ip++] & 0xFF) << 8;
+                int matchLength = token & 15;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+
+                int ref = op - offset;
+                if (offset == 0 || ref < 0 || op + matchLength > rawLength) {
+                    throw new IOException("Corrupt LZ4 block, match out of bounds");
+                }
+                // byte by byte, as the match may overlap the bytes it produces
+                for (int i = 0; i < matchLength; ++i) {
+                    dst[op++] = dst[ref + i];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt LZ4 block, truncated", e);
+        }
+
+        if (op != rawLength) {
+            throw new IOException("Corrupt LZ4 block, expected " + rawLength + " bytes but got " + op);
+        }
+    }
+
+    private static int readIntLE(byte[] bytes, int i) {
+        return (bytes[i] & 0xFF) | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF) << 16 | (bytes[i + 3] & 0xFF) << 24;
+    }
+
+    private static final class BlockOutputStream extends OutputStream {
+
+        private final DataOutputStream out;
+        private final byte[] block;
+        private final byte[] compressed;
+        private final int[] hashTable = new int[1 << HASH_LOG];
+        private int length;
+        private boolean closed;
+
+        BlockOutputStream(DataOutputStream out, int blockSize) throws IOException {
+            this.out = out;
+            this.block = new byte[blockSize];
+            this.compressed = new byte[maxCompressedLength(blockSize)];
+            out.writeInt(MAGIC);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (this.length == this.block.length) {
+                this.writeBlock();
+            }
+            this.block[this.length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (this.length == this.block.length) {
+                    this.writeBlock();
+                }
+                int count = Math.min(len, this.block.length - this.length);
+                System.arraycopy(b, off, this.block, this.length, count);
+                this.length += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            if (this.length == 0) {
+                return;
+            }
+
+            int compressedLength = compress(this.block, this.length, this.compressed, this.hashTable);
+            if (compressedLength >= this.length) {
+                this.out.writeInt(this.length | STORED);
+                this.out.writeInt(this.length);
+                this.out.write(this.block, 0, this.length);
+            } else {
+                this.out.writeInt(compressedLength);
+                this.out.writeInt(this.length);
+                this.out.write(this.compressed, 0, compressedLength);
+            }
+            this.length = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.writeBlock();
+            this.out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!this.closed) {
+                this.closed = true;
+                try {
+                    this.writeBlock();
+                    this.out.writeInt(0);
+                    this.out.writeInt(0);
+                } finally {
+                    this.out.close();
+                }
+            }
+        }
+    }
+
+    private static final class BlockInputStream extends InputStream {
+
+        private final DataInputStream in;
+        private byte[] block = new byte[0];
+        private byte[] compressed = new byte[0];
+        private int position;
+        private int length;
+        private boolean finished;
+
+        BlockInputStream(DataInputStream in) throws IOException {
+            this.in = in;
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an LZ4 compressed stream");
+            }
+        }
+
+        /**
+         * @return false at the end of the stream
+         */
+        private boolean fill() throws IOException {
+            while (this.position == this.length) {
+                if (this.finished) {
+                    return false;
+                }
+
+                int compressedLength;
+                int rawLength;
+                try {
+                    compressedLength = this.in.readInt();
+                    rawLength = this.in.readInt();
+                } catch (EOFException e) {
+                    throw new EOFException("LZ4 stream ended without an end block");
+                }
+
+                if (rawLength == 0) {
+                    this.finished = true;
+                    return false;
+                } else if (rawLength < 0 || rawLength > MAX_BLOCK_SIZE) {
+                    throw new IOException("Corrupt LZ4 stream, invalid block length " + rawLength);
+                }
+
+                if (this.block.length < rawLength) {
+                    this.block = new byte[rawLength];
+                }
+
+                if ((compressedLength & STORED) != 0) {
+                    if ((compressedLength & ~STORED) != rawLength) {
+                        throw new IOException("Corrupt LZ4 stream, stored block length mismatch");
+                    }
+                    this.in.readFully(this.block, 0, rawLength);
+                } else {
+                    if (compressedLength <= 0 || compressedLength > maxCompressedLength(rawLength)) {
+                        throw new IOException("Corrupt LZ4 stream, invalid block length " + compressedLength);
+                    }
+                    if (this.compressed.length < compressedLength) {
+                        this.compressed = new byte[compressedLength];
+                    }
+                    this.in.readFully(this.compressed, 0, compressedLength);
+                    decompress(this.compressed, compressedLength, this.block, rawLength);
+                }
+
+                this.position = 0;
+                this.length = rawLength;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return this.fill() ? this.block[this.position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            } else if (!this.fill()) {
+                return -1;
+            }
+
+            int count = Math.min(len, this.length - this.position);
+            System.arraycopy(this.block, this.position, b, off, count);
+            this.position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return this.length - this.position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.in.close();
+        }
+    }
+}
@@ -39,6 +39,76 @@ public abstract class NBTBase {
             return emptyConstructor.get();
         }
 
+        /**
+         * Advances the input past the payload of a tag of this type without decoding it, using the length prefixes
+         * of arrays, strings and lists to jump over their contents. Nesting is held to the depth limit of the tracker.
+         */
+        void skip(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
+            switch (this) {
+                case END -> {}
+                case BYTE -> skipFully(input, 1);
+                case SHORT -> skipFully(input, 2);
+                case INT, FLOAT -> skipFully(input, 4);
+                case LONG, DOUBLE -> skipFully(input, 8);
+                case BYTE_ARRAY -> skipFully(input, input.readInt());
+                case STRING -> skipFully(input, input.readUnsignedShort());
+                case INT_ARRAY -> skipFully(input, 4L * input.readInt());
+                case LIST -> {
+                    sizeTracker.checkDepth(depth);
+                    Type elementType = byId(input.readByte());
+                    int count = input.readInt();
+                    int elementSize = elementType.fixedSize();
+
+                    if (elementSize >= 0) {
+                        skipFully(input, (long) elementSize * count);
+                    } else {
+                        for (int i = 0; i < count; ++i) {
+                            elementType.skip(input, depth + 1, sizeTracker);
+                        }
+                    }
+                }
+                case COMPOUND -> {
+                    sizeTracker.checkDepth(depth);
+                    byte tagType;
+
+                    while ((tagType = input.readByte()) != 0) {
+                        skipFully(input, input.readUnsignedShort());
+                        byId(tagType).skip(input, depth + 1, sizeTracker);
+                    }
+                }
+            }
+        }
+
+        /**
+         * The payload size of this type in bytes, or -1 if it is variable.
+         */
+        int fixedSize() {
+            return switch (this) {
+                case END -> 0;
+                case BYTE -> 1;
+                case SHORT -> 2;
+                case INT, FLOAT -> 4;
+                case LONG, DOUBLE -> 8;
+                default -> -1;
+            };
+        }
+
+        private static void skipFully(DataInput input, long bytes) throws IOException {
+            if (bytes < 0) {
+                throw new IOException("Negative length " + bytes);
+            }
+
+            while (bytes > 0) {
+                int skipped = input.skipBytes((int) Math.min(bytes, Integer.MAX_VALUE));
+                if (skipped <= 0) {
+                    // skipBytes may give up early without reaching the end, readByte throws if we did
+                    input.readByte();
+                    skipped = 1;
+                }
+                bytes -= skipped;
+            }
+        }
+
         public static Type byId(int id) {
             if(id >= 0 && id < values().length) {
                 return values()[id];
@@ -67,6 +137,22 @@ public abstract class NBTBase {
      */
     public abstract NBTBase copy();
 
+    /**
+     * A copy that shares its contents with this tag until either of them is changed, see
+     * {@link NBTTagCompound#copyOnWrite()}. Tags that cannot be changed are returned as they are.
+     */
+    NBTBase share() {
+        return this;
+    }
+
+    /**
+     * Whether the tag can be changed in place, so a container shared by {@link #share()} has to be copied before it
+     * hands the tag out. Such tags extend {@link NBTMutable}.
+     */
+    boolean isMutable() {
+        return this instanceof NBTMutable;
+    }
+
     public boolean equals(Object other) {
         if (!(other instanceof NBTBase nbtbase)) {
             return false;
@@ -97,4 +183,160 @@ public abstract class NBTBase {
 
         public abstract float toFloat();
     }
+
+    /**
+     * A tag that can be changed in place and caches its hash code until it is.
+     * <p>
+     * Each such tag remembers the one container it was stored in, and a change clears the cached hash codes from
+     * there up to the root, so hashing a tree that has not changed takes constant time. Caching stops for good, for
+     * the tag and every container above it, once that cannot be tracked: when the tag is stored in a second container,
+     * or when an array tag hands out or was created with an array that can be changed from outside.
+     */
+    abstract static class NBTMutable extends NBTBase {
+
+        /** The container this tag is stored in, to be told about changes, or null. */
+        private NBTMutable parent;
+        /** Whether the tag has been stored in more than one container, so they cannot all be told about changes. */
+        private boolean manyParents;
+        /** Whether this tag or a tag inside it may change without notice, so the hash code is never cached. */
+        private boolean untracked;
+        /**
+         * Whether the array of this tag, or of a tag inside it, has been handed out and may change without notice, so
+         * the cached hash code is only used once {@link #checkArrays()} has found the arrays unchanged.
+         */
+        private boolean exposed;
+        /**
+         * The cached hash code, or 0 if it has not been computed since the last change. A single field, like the hash
+         * of a String, so a thread racing to compute it sees either 0 or the whole value.
+         */
+        private int hash;
+
+        /**
+         * Computes the hash code from the contents, asking nested tags for theirs.
+         */
+        abstract int computeHash();
+
+        @Override
+        public final int hashCode() {
+            if (this.untracked) {
+                return this.computeHash();
+            } else if (this.exposed) {
+                this.checkArrays();
+            }
+
+            int h = this.hash;
+            if (h == 0) {
+                h = this.computeHash();
+                this.hash = h;
+            }
+            return h;
+        }
+
+        /**
+         * Whether both tags have a cached hash code and these differ, so they cannot be equal.
+         */
+        final boolean hashDiffers(NBTMutable other) {
+            if (this.exposed) {
+                this.checkArrays();
+            }
+            if (other.exposed) {
+                other.checkArrays();
+            }
+
+            int h = this.hash;
+            int otherHash = other.hash;
+            return h != 0 && otherHash != 0 && h != otherHash;
+        }
+
+        /**
+         * Clears the cached hash code of this tag and every container above it. A tag whose hash code is 0 is never
+         * cached, while its containers may be, so the walk goes all the way up.
+         */
+        final void changed() {
+            for (NBTMutable tag = this; tag != null; tag = tag.parent) {
+                tag.hash = 0;
+            }
+        }
+
+        /**
+         * Stops caching the hash code of this tag and every container above it.
+         */
+        final void untrack() {
+            for (NBTMutable tag = this; tag != null && !tag.untracked; tag = tag.parent) {
+                tag.untracked = true;
+                tag.hash = 0;
+            }
+        }
+
+        /**
+         * Marks the array of this tag as handed out, and every container above it as holding one.
+         */
+        final void expose() {
+            for (NBTMutable tag = this; tag != null && !tag.exposed; tag = tag.parent) {
+                tag.exposed = true;
+            }
+        }
+
+        /**
+         * Clears the cached hash code of every handed out array inside this tag that changed since it was computed, and
+         * of the containers above it.
+         */
+        void checkArrays() {}
+
+        /**
+         * Checks the arrays inside the given tag, if any were handed out.
+         */
+        static void checkArrays(NBTBase tag) {
+            if (tag instanceof NBTMutable mutable && mutable.exposed) {
+                mutable.checkArrays();
+            }
+        }
+
+        /**
+         * Records that the tag is now stored in this container, which changes it.
+         */
+        final void attach(NBTBase tag) {
+            this.changed();
+
+            if (tag instanceof NBTMutable child) {
+                if (child.parent == null && !child.manyParents) {
+                    child.parent = this;
+                } else {
+                    if (child.parent != null) {
+                        child.parent.untrack();
+                        child.parent = null;
+                    }
+                    child.manyParents = true;
+                    this.untrack();
+                }
+
+                if (child.untracked) {
+                    this.untrack();
+                }
+                if (child.exposed) {
+                    this.expose();
+                }
+            }
+        }
+
+        /**
+         * Records that the tag is no longer stored in this container, which changes it.
+         */
+        final void detach(NBTBase tag) {
+            this.changed();
+
+            if (tag instanceof NBTMutable child && child.parent == this) {
+                child.parent = null;
+            }
+        }
+
+        /**
+         * Gives a copy sharing the contents of this tag the same cached hash code.
+         */
+        final void shareHash(NBTMutable copy) {
+            copy.untracked = this.untracked;
+            copy.exposed = this.exposed;
+            copy.hash = this.hash;
+        }
+    }
 }
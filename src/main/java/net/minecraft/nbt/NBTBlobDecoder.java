@@ -0,0 +1,490 @@
+package net.minecraft.nbt;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decodes whole compressed compounds held in memory, reusing its inflaters and output buffer from one to the next.
+ * <p>
+ * The deflate based codecs are inflated into the output buffer, checking the gzip header and trailer here instead of
+ * going through {@link java.util.zip.GZIPInputStream}, and the result is parsed straight from the buffer.
+ * Gzip data may consist of several members, as written by {@link CompressedStreamTools#writeCompressed(NBTTagCompound,
+ * java.io.OutputStream, java.util.concurrent.ForkJoinPool)}. Other codecs are read through their streams.
+ * <p>
+ * Decoders are taken from a small shared pool, see {@link #acquire()}, rather than kept per thread, so threads that
+ * come and go, such as virtual threads, still reuse them and idle threads hold on to nothing.
+ */
+final class NBTBlobDecoder {
+
+    /** The idle decoders, about one per processor that may be decoding at the same time. */
+    private static final ArrayBlockingQueue<NBTBlobDecoder> POOL = new ArrayBlockingQueue<>(
+        Runtime.getRuntime().availableProcessors());
+    /** The number of blobs decoded by each task of {@link #readAll}, so the decoder is reused between them. */
+    private static final int BATCH_SIZE = 8;
+    /** Buffers up to this size are kept for the next blob. */
+    private static final int MAX_RETAINED = 1 << 18;
+    private static final int INITIAL_SIZE = 1 << 16;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    /** Inflates gzip members and raw deflate data, which carry no zlib header. */
+    private final Inflater raw = new Inflater(true);
+    private final Inflater zlib = new Inflater();
+    private final CRC32 crc = new CRC32();
+    private byte[] output = new byte[INITIAL_SIZE];
+    /** Holds the compressed bytes read from a stream, those between the position and the limit not used yet. */
+    private final byte[] input = new byte[INITIAL_SIZE];
+    private int inputPosition;
+    private int inputLimit;
+
+    private NBTBlobDecoder() {}
+
+    /**
+     * An idle decoder from the pool, or a new one if there is none, to be handed back with {@link #release()}.
+     */
+    static NBTBlobDecoder acquire() {
+        NBTBlobDecoder decoder = POOL.poll();
+        return decoder != null ? decoder : new NBTBlobDecoder();
+    }
+
+    /**
+     * Returns the decoder to the pool, dropping large buffers first. A decoder the pool has no room for frees its
+     * inflaters at once instead of waiting for the garbage collector.
+     */
+    void release() {
+        if (this.output.length > MAX_RETAINED) {
+            this.output = new byte[INITIAL_SIZE];
+        }
+        this.inputPosition = this.inputLimit = 0;
+
+        if (!POOL.offer(this)) {
+            this.raw.end();
+            this.zlib.end();
+        }
+    }
+
+    /**
+     * Decodes the blobs on the executor, each from its position to its limit, a few at a time per task with one
+     * decoder.
+     *
+     * @return a future for each blob, in the same order, failing with whatever failed decoding that blob
+     */
+    static List<CompletableFuture<NBTTagCompound>> readAll(List<ByteBuffer> blobs, CompressionCodec codec,
+        Supplier<NBTSizeTracker> trackers, Executor executor) {
+        List<CompletableFuture<NBTTagCompound>> results = new ArrayList<>(blobs.size());
+        for (int i = 0; i < blobs.size(); ++i) {
+            results.add(new CompletableFuture<>());
+        }
+
+        for (int start = 0; start < blobs.size(); start += BATCH_SIZE) {
+            int from = start;
+            int to = Math.min(blobs.size(), start + BATCH_SIZE);
+            Runnable task = () -> {
+                NBTBlobDecoder decoder = acquire();
+                try {
+                    for (int i = from; i < to; ++i) {
+                        try {
+                            results.get(i).complete(decoder.read(blobs.get(i).duplicate(), codec, trackers.get()));
+                        } catch (Throwable e) {
+                            results.get(i).completeExceptionally(e);
+                        }
+                    }
+                } finally {
+                    decoder.release();
+                }
+            };
+
+            try {
+                executor.execute(task);
+            } catch (RuntimeException e) {
+                for (int i = from; i < to; ++i) {
+                    results.get(i).completeExceptionally(e);
+                }
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Decodes the compound compressed between the position and the limit of the buffer, advancing its position.
+     */
+    NBTTagCompound read(ByteBuffer blob, CompressionCodec codec, NBTSizeTracker sizeTracker) throws IOException {
+        if (!(codec instanceof DeflateCodec deflate)) {
+            return this.readStream(blob, codec, sizeTracker);
+        }
+
+        int length = this.inflate(blob, deflate, sizeTracker);
+        return CompressedStreamTools.read(ByteBuffer.wrap(this.output, 0, length), sizeTracker);
+    }
+
+    /**
+     * Decompresses the data between the position and the limit of the buffer into a new array, for readers that keep
+     * slices of it, advancing the position.
+     */
+    byte[] decompress(ByteBuffer blob, CompressionCodec codec, NBTSizeTracker sizeTracker) throws IOException {
+        int length;
+        if (codec instanceof DeflateCodec deflate) {
+            length = this.inflate(blob, deflate, sizeTracker);
+        } else {
+            length = 0;
+            try (InputStream input = codec.decompress(openBlob(blob))) {
+                for (int read; (read = input.read(this.output, length, this.output.length - length)) >= 0; ) {
+                    length += read;
+                    this.grow(length, sizeTracker);
+                }
+            }
+            sizeTracker.checkEncodedSize(length);
+        }
+        return Arrays.copyOf(this.output, length);
+    }
+
+    private int inflate(ByteBuffer blob, DeflateCodec codec, NBTSizeTracker sizeTracker) throws IOException {
+        return switch (codec.format()) {
+            case GZIP -> this.gunzip(blob, sizeTracker);
+            case ZLIB -> this.inflate(this.zlib, blob, 0, sizeTracker);
+            case RAW -> this.inflate(this.raw, blob, 0, sizeTracker);
+        };
+    }
+
+    /**
+     * Makes room in the output buffer once it is full at the given offset.
+     */
+    private void grow(int offset, NBTSizeTracker sizeTracker) {
+        if (offset == this.output.length) {
+            sizeTracker.checkEncodedSize(offset + 1L);
+            int size = (int) Math.min(Integer.MAX_VALUE - 8, 2L * this.output.length);
+            if (size <= offset) {
+                throw new OutOfMemoryError("Required buffer size too large");
+            }
+            this.output = Arrays.copyOf(this.output, size);
+        }
+    }
+
+    /**
+     * Decodes the compound from the stream and closes it. The deflate based codecs are inflated as the compressed bytes
+     * arrive and reading stops at the end of the compressed data, so the stream is never read further than needed.
+     */
+    NBTTagCompound read(InputStream inputStream, CompressionCodec codec, NBTSizeTracker sizeTracker)
+        throws IOException {
+        if (!(codec instanceof DeflateCodec deflate)) {
+            try (DataInputStream data = new DataInputStream(new BufferedInputStream(codec.decompress(inputStream)))) {
+                return CompressedStreamTools.read(data, sizeTracker);
+            }
+        }
+
+        int length;
+        try (inputStream) {
+            length = switch (deflate.format()) {
+                case GZIP -> this.gunzip(inputStream, sizeTracker);
+                case ZLIB -> this.inflate(this.zlib, inputStream, 0, sizeTracker);
+                case RAW -> this.inflate(this.raw, inputStream, 0, sizeTracker);
+            };
+        }
+        return CompressedStreamTools.read(ByteBuffer.wrap(this.output, 0, length), sizeTracker);
+    }
+
+    private NBTTagCompound readStream(ByteBuffer blob, CompressionCodec codec, NBTSizeTracker sizeTracker)
+        throws IOException {
+        try (DataInputStream data = new DataInputStream(new BufferedInputStream(codec.decompress(openBlob(blob))))) {
+            return CompressedStreamTools.read(data, sizeTracker);
+        }
+    }
+
+    /**
+     * A stream over the rest of the buffer, which is advanced to its limit.
+     */
+    private static InputStream openBlob(ByteBuffer blob) {
+        InputStream input;
+        if (blob.hasArray()) {
+            input = new ByteArrayInputStream(blob.array(), blob.arrayOffset() + blob.position(), blob.remaining());
+        } else {
+            byte[] bytes = new byte[blob.remaining()];
+            blob.duplicate().get(bytes);
+            input = new ByteArrayInputStream(bytes);
+        }
+        blob.position(blob.limit());
+        return input;
+    }
+
+    /**
+     * Inflates every gzip member into the output buffer, checking their trailers.
+     *
+     * @return the number of bytes inflated
+     */
+    private int gunzip(ByteBuffer blob, NBTSizeTracker sizeTracker) throws IOException {
+        ByteBuffer input = blob.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int length = this.gunzipMembers(input, sizeTracker);
+        blob.position(input.position());
+        return length;
+    }
+
+    private int gunzipMembers(ByteBuffer blob, NBTSizeTracker sizeTracker) throws IOException {
+        int length = 0;
+
+        do {
+            this.skipHeader(blob);
+            int start = length;
+            length = this.inflate(this.raw, blob, length, sizeTracker);
+
+            if (blob.remaining() < 8) {
+                throw new EOFException("Unexpected end of ZLIB input stream");
+            }
+            this.crc.reset();
+            this.crc.update(this.output, start, length - start);
+            if (blob.getInt() != (int) this.crc.getValue() || blob.getInt() != length - start) {
+                throw new ZipException("Corrupt GZIP trailer");
+            }
+            // like GZIPInputStream, anything after the last member that does not start another one is ignored
+        } while (blob.remaining() >= 10 && blob.getShort(blob.position()) == (short) 0x8b1f);
+
+        return length;
+    }
+
+    private void skipHeader(ByteBuffer blob) throws IOException {
+        if (blob.remaining() < 10) {
+            throw new EOFException();
+        } else if (blob.getShort() != (short) 0x8b1f) {
+            throw new ZipException("Not in GZIP format");
+        } else if (blob.get() != 8) {
+            throw new ZipException("Unsupported compression method");
+        }
+
+        int flags = blob.get();
+        blob.position(blob.position() + 6); // modification time, extra flags and operating system
+
+        try {
+            if ((flags & FEXTRA) != 0) {
+                blob.position(blob.position() + 2 + (blob.getShort() & 0xFFFF));
+            }
+            if ((flags & FNAME) != 0) {
+                while (blob.get() != 0) {}
+            }
+            if ((flags & FCOMMENT) != 0) {
+                while (blob.get() != 0) {}
+            }
+            if ((flags & FHCRC) != 0) {
+                blob.getShort();
+            }
+        } catch (RuntimeException e) {
+            // BufferUnderflowException or IllegalArgumentException for a truncated header
+            throw new EOFException();
+        }
+    }
+
+    /**
+     * Inflates every gzip member from the stream into the output buffer, checking their trailers. Another member is
+     * only looked for if the stream has bytes ready, so a stream that stays open after the data is not waited on.
+     *
+     * @return the number of bytes inflated
+     */
+    private int gunzip(InputStream stream, NBTSizeTracker sizeTracker) throws IOException {
+        int length = 0;
+
+        do {
+            this.skipHeader(stream);
+            int start = length;
+            length = this.inflate(this.raw, stream, length, sizeTracker);
+
+            this.require(stream, 8);
+            ByteBuffer trailer = ByteBuffer.wrap(this.input, this.inputPosition, 8).order(ByteOrder.LITTLE_ENDIAN);
+            this.inputPosition += 8;
+            this.crc.reset();
+            this.crc.update(this.output, start, length - start);
+            if (trailer.getInt() != (int) this.crc.getValue() || trailer.getInt() != length - start) {
+                throw new ZipException("Corrupt GZIP trailer");
+            }
+        } while (this.hasMember(stream));
+
+        return length;
+    }
+
+    /**
+     * Whether another gzip member follows in the stream. Like GZIPInputStream, anything after the last member that does
+     * not start another one is ignored.
+     */
+    private boolean hasMember(InputStream stream) throws IOException {
+        if (this.inputPosition == this.inputLimit && stream.available() <= 0) {
+            return false;
+        }
+
+        while (this.inputLimit - this.inputPosition < 2) {
+            if (!this.fill(stream)) {
+                return false;
+            }
+        }
+        return this.input[this.inputPosition] == 0x1f && this.input[this.inputPosition + 1] == (byte) 0x8b;
+    }
+
+    private void skipHeader(InputStream stream) throws IOException {
+        this.require(stream, 10);
+        int position = this.inputPosition;
+        if (this.input[position] != 0x1f || this.input[position + 1] != (byte) 0x8b) {
+            throw new ZipException("Not in GZIP format");
+        } else if (this.input[position + 2] != 8) {
+            throw new ZipException("Unsupported compression method");
+        }
+
+        int flags = this.input[position + 3];
+        this.inputPosition += 10; // modification time, extra flags and operating system included
+
+        if ((flags & FEXTRA) != 0) {
+            this.require(stream, 2);
+            int extra = (this.input[this.inputPosition] & 0xFF) | (this.input[this.inputPosition + 1] & 0xFF) << 8;
+            this.inputPosition += 2;
+            this.skip(stream, extra);
+        }
+        if ((flags & FNAME) != 0) {
+            this.skipString(stream);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            this.skipString(stream);
+        }
+        if ((flags & FHCRC) != 0) {
+            this.skip(stream, 2);
+        }
+    }
+
+    private void skip(InputStream stream, int bytes) throws IOException {
+        while (bytes > 0) {
+            this.require(stream, 1);
+            int skipped = Math.min(bytes, this.inputLimit - this.inputPosition);
+            this.inputPosition += skipped;
+            bytes -= skipped;
+        }
+    }
+
+    private void skipString(InputStream stream) throws IOException {
+        do {
+            this.require(stream, 1);
+        } while (this.input[this.inputPosition++] != 0);
+    }
+
+    /**
+     * Reads from the stream until at least the given number of bytes are held in the input buffer.
+     */
+    private void require(InputStream stream, int bytes) throws IOException {
+        while (this.inputLimit - this.inputPosition < bytes) {
+            if (!this.fill(stream)) {
+                throw new EOFException("Unexpected end of ZLIB input stream");
+            }
+        }
+    }
+
+    /**
+     * Reads more of the stream into the input buffer, moving the bytes not used yet to its start first if needed.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean fill(InputStream stream) throws IOException {
+        if (this.inputPosition == this.inputLimit) {
+            this.inputPosition = this.inputLimit = 0;
+        } else if (this.inputLimit == this.input.length) {
+            System.arraycopy(this.input, this.inputPosition, this.input, 0, this.inputLimit - this.inputPosition);
+            this.inputLimit -= this.inputPosition;
+            this.inputPosition = 0;
+        }
+
+        int read = stream.read(this.input, this.inputLimit, this.input.length - this.inputLimit);
+        if (read < 0) {
+            return false;
+        }
+        this.inputLimit += read;
+        return true;
+    }
+
+    /**
+     * Inflates one deflate stream into the output buffer at the offset, reading its compressed bytes from the stream as
+     * the inflater needs them and leaving the bytes after it in the input buffer.
+     *
+     * @return the offset after the last byte inflated
+     */
+    private int inflate(Inflater inflater, InputStream stream, int offset, NBTSizeTracker sizeTracker)
+        throws IOException {
+        inflater.reset();
+
+        try {
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (this.inputPosition == this.inputLimit && !this.fill(stream)) {
+                        throw new EOFException("Unexpected end of ZLIB input stream");
+                    }
+                    inflater.setInput(this.input, this.inputPosition, this.inputLimit - this.inputPosition);
+                    this.inputPosition = this.inputLimit;
+                }
+                this.grow(offset, sizeTracker);
+
+                int inflated = inflater.inflate(this.output, offset, this.output.length - offset);
+                if (inflated == 0 && inflater.needsDictionary()) {
+                    throw new ZipException("ZLIB dictionary missing");
+                }
+                offset += inflated;
+            }
+            this.inputPosition = this.inputLimit - inflater.getRemaining();
+        } catch (DataFormatException e) {
+            String message = e.getMessage();
+            throw new ZipException(message != null ? message : "Invalid ZLIB data format");
+        } finally {
+            inflater.reset(); // lets go of the input buffer
+        }
+
+        sizeTracker.checkEncodedSize(offset);
+        return offset;
+    }
+
+    /**
+     * Inflates one deflate stream from the position of the buffer into the output buffer at the offset, advancing the
+     * position past it.
+     *
+     * @return the offset after the last byte inflated
+     */
+    private int inflate(Inflater inflater, ByteBuffer blob, int offset, NBTSizeTracker sizeTracker)
+        throws IOException {
+        inflater.reset();
+        inflater.setInput(blob);
+
+        try {
+            while (!inflater.finished()) {
+                this.grow(offset, sizeTracker);
+
+                int inflated = inflater.inflate(this.output, offset, this.output.length - offset);
+                if (inflated == 0) {
+                    if (inflater.needsDictionary()) {
+                        throw new ZipException("ZLIB dictionary missing");
+                    } else if (inflater.needsInput()) {
+                        throw new EOFException("Unexpected end of ZLIB input stream");
+                    }
+                }
+                offset += inflated;
+            }
+        } catch (DataFormatException e) {
+            String message = e.getMessage();
+            throw new ZipException(message != null ? message : "Invalid ZLIB data format");
+        } finally {
+            inflater.reset(); // lets go of the blob
+        }
+
+        sizeTracker.checkEncodedSize(offset);
+        return offset;
+    }
+}
@@ -0,0 +1,156 @@
+package net.minecraft.nbt;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses whole compounds in memory, reusing its deflaters and buffers from one to the next, the counterpart of
+ * {@link NBTBlobDecoder}.
+ * <p>
+ * The compound is encoded into a buffer and deflated from it in one go, writing the gzip header and trailer here
+ * instead of going through {@link java.util.zip.GZIPOutputStream}. Other codecs are written through their streams.
+ * Encoders are taken from a small shared pool like decoders, see {@link #acquire()}.
+ */
+final class NBTBlobEncoder {
+
+    /** The idle encoders, about one per processor that may be encoding at the same time. */
+    private static final ArrayBlockingQueue<NBTBlobEncoder> POOL = new ArrayBlockingQueue<>(
+        Runtime.getRuntime().availableProcessors());
+    /** Buffers up to this size are kept for the next compound. */
+    private static final int MAX_RETAINED = 1 << 18;
+    private static final int INITIAL_SIZE = 1 << 16;
+
+    /** The header {@link java.util.zip.GZIPOutputStream} writes: no flags, modification time or operating system. */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, 0};
+
+    /** Deflates gzip members and raw deflate data, which carry no zlib header. */
+    private final Deflater raw = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final Deflater zlib = new Deflater();
+    private final CRC32 crc = new CRC32();
+    private NBTByteBufferOutput encoded = new NBTByteBufferOutput(INITIAL_SIZE);
+    private byte[] output = new byte[INITIAL_SIZE];
+
+    private NBTBlobEncoder() {}
+
+    /**
+     * An idle encoder from the pool, or a new one if there is none, to be handed back with {@link #release()}.
+     */
+    static NBTBlobEncoder acquire() {
+        NBTBlobEncoder encoder = POOL.poll();
+        return encoder != null ? encoder : new NBTBlobEncoder();
+    }
+
+    /**
+     * Returns the encoder to the pool, dropping large buffers first. An encoder the pool has no room for frees its
+     * deflaters at once instead of waiting for the garbage collector.
+     */
+    void release() {
+        if (this.encoded.buffer().capacity() > MAX_RETAINED) {
+            this.encoded = new NBTByteBufferOutput(INITIAL_SIZE);
+        }
+        if (this.output.length > MAX_RETAINED) {
+            this.output = new byte[INITIAL_SIZE];
+        }
+
+        if (!POOL.offer(this)) {
+            this.raw.end();
+            this.zlib.end();
+        }
+    }
+
+    byte[] compress(NBTTagCompound compound, CompressionCodec codec) throws IOException {
+        if (!(codec instanceof DeflateCodec deflate)) {
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            writeStream(compound, codec, byteArrayOutputStream);
+            return byteArrayOutputStream.toByteArray();
+        }
+
+        int length = this.deflate(compound, deflate); // before reading the output, which it may replace
+        return Arrays.copyOf(this.output, length);
+    }
+
+    /**
+     * Compresses the compound to the stream and closes it.
+     */
+    void writeCompressed(NBTTagCompound compound, CompressionCodec codec, OutputStream outputStream)
+        throws IOException {
+        if (!(codec instanceof DeflateCodec deflate)) {
+            writeStream(compound, codec, outputStream);
+            return;
+        }
+
+        try (outputStream) {
+            int length = this.deflate(compound, deflate);
+            outputStream.write(this.output, 0, length);
+        }
+    }
+
+    private static void writeStream(NBTTagCompound compound, CompressionCodec codec, OutputStream outputStream)
+        throws IOException {
+        try (DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(codec.compress(
+            outputStream)))) {
+            CompressedStreamTools.write(compound, dataOutputStream);
+        }
+    }
+
+    /**
+     * Encodes the compound and deflates it into the output buffer.
+     *
+     * @return the number of compressed bytes
+     */
+    private int deflate(NBTTagCompound compound, DeflateCodec codec) throws IOException {
+        this.encoded.buffer().clear();
+        CompressedStreamTools.write(compound, this.encoded);
+        ByteBuffer input = this.encoded.buffer().flip();
+
+        boolean gzip = codec.format() == DeflateCodec.Format.GZIP;
+        int offset = 0;
+        if (gzip) {
+            System.arraycopy(GZIP_HEADER, 0, this.output, 0, GZIP_HEADER.length);
+            offset = GZIP_HEADER.length;
+            this.crc.reset();
+            this.crc.update(input.duplicate());
+        }
+
+        Deflater deflater = codec.format() == DeflateCodec.Format.ZLIB ? this.zlib : this.raw;
+        deflater.setLevel(codec.level());
+        deflater.setInput(input);
+        deflater.finish();
+
+        try {
+            while (!deflater.finished()) {
+                this.ensure(offset + 1);
+                offset += deflater.deflate(this.output, offset, this.output.length - offset);
+            }
+        } finally {
+            deflater.reset(); // lets go of the input
+        }
+
+        if (gzip) {
+            this.ensure(offset + 8);
+            ByteBuffer.wrap(this.output, offset, 8).order(ByteOrder.LITTLE_ENDIAN).putInt((int) this.crc.getValue())
+                .putInt(input.limit());
+            offset += 8;
+        }
+        return offset;
+    }
+
+    private void ensure(int length) {
+        if (length > this.output.length) {
+            int size = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(length, 2L * this.output.length));
+            if (size < length) {
+                throw new OutOfMemoryError("Required buffer size too large");
+            }
+            this.output = Arrays.copyOf(this.output, size);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package net.minecraft.nbt;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Bulk transfer of primitive arrays, byte-compatible with element-by-element DataInput/DataOutput calls.
+ * <p>
+ * Buffer codecs are handed the whole array at once. Any other input or output is moved through a bounded byte[]
+ * window with a single readFully/write call per window, so a DataInputStream no longer pays four virtual reads per int.
+ */
+final class NBTBulkIO {
+
+    private static final VarHandle SHORTS = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INTS = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle FLOATS = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle DOUBLES = MethodHandles.byteArrayViewVarHandle(double[].class, ByteOrder.BIG_ENDIAN);
+
+    /** The largest window allocated for a single transfer. */
+    private static final int WINDOW_BYTES = 8192;
+
+    private NBTBulkIO() {}
+
+    private static byte[] window(int length, int elementSize) {
+        return new byte[(int) Math.min((long) length * elementSize, WINDOW_BYTES)];
+    }
+
+    static void readShorts(DataInput input, short[] shorts, int length) throws IOException {
+        byte[] window = window(length, 2);
+        for (int start = 0; start < length; ) {
+            int count = Math.min(length - start, window.length / 2);
+            input.readFully(window, 0, count * 2);
+            for (int i = 0; i < count; ++i) {
+                shorts[start + i] = (short) SHORTS.get(window, i * 2);
+            }
+            start += count;
+        }
+    }
+
+    static void writeShorts(DataOutput output, short[] shorts, int length) throws IOException {
+        byte[] window = window(length, 2);
+        for (int start = 0; start < length; ) {
+            int count = Math.min(length - start, window.length / 2);
+            for (int i = 0; i < count; ++i) {
+                SHORTS.set(window, i * 2, shorts[start + i]);
+            }
+            output.write(window, 0, count * 2);
+            start += count;
+        }
+    }
+
+    static void readInts(DataInput input, int[] ints, int length) throws IOException {
+        if (input instanceof NBTByteBufferInput bufferInput) {
+            bufferInput.readInts(ints, length);
+            return;
+        }
+
+        byte[] window = window(length, 4);
+        for (int start = 0; start < length; ) {
+            int count = Math.min(length - start, window.length / 4);
+            input.readFully(window, 0, count * 4);
+            for (int i = 0; i < count; ++i) {
+                ints[start + i] = (int) INTS.get(window, i * 4);
+            }
+            start += count;
+        }
+    }
+
+    static void writeInts(DataOutput output, int[] ints, int length) throws IOException {
+        if (output instanceof NBTByteBufferOutput bufferOutput) {
+            bufferOutput.writeInts(ints, length);
+            return;
+        }
+
+        byte[] window = window(length, 4);
+        for (int start = 0; start < length; ) {
+            int count = Math.min(length - start, window.length / 4);
+            for (int i = 0; i < count; ++i) {
+                INTS.set(window, i * 4, ints[start + i]);
+            }
+            output.write(window, 0, count * 4);
+            start += count;
+        }
+    }
+
+    static void readLongs(DataInput input, long[] longs, int length) throws IOException {
+        byte[] window = window(length, 8);
+        for (int start = 0; start < length; ) {
+            int count = Math.min(length - start, window.length / 8);
+            input.readFully(window, 0, count * 8);
+            for (int i = 0; i < count; ++i) {
+                longs[start + i] = (long) LONGS.get(window, i * 8);
+            }
+            start += count;
+        }
+    }
+
+    static void writeLongs(DataOutput output, long[] longs, int length) throws IOException {
+        byte[] window = window(length, 8);
+        for (int start = 0; start < length; ) {
+            int count = Math.min(length - start, window.length / 8);
+            for (int i = 0; i < count; ++i) {
+                LONGS.set(window, i * 8, longs[start + i]);
+            }
+            output.write(window, 0, count * 8);
+            start += count;
+        }
+    }
+
+    static void readFloats(DataInput input, float[] floats, int length) throws IOException {
+        byte[] window = window(length, 4);
+        for (int start = 0; start < length; ) {
+            int count = Math.min(length - start, window.length / 4);
+            input.readFully(window, 0, count * 4);
+            for (int i = 0; i < count; ++i) {
+                floats[start + i] = (float) FLOATS.get(window, i * 4);
+            }
+            start += count;
+        }
+    }
+
+    /**
+     * Floats are written through {@link Float#floatToIntBits}, as DataOutputStream does, so NaN payloads are
+     * normalised the same way.
+     */
+    static void writeFloats(DataOutput output, float[] floats, int length) throws IOException {
+        byte[] window = window(length, 4);
+        for (int start = 0; start < length; ) {
+            int count = Math.min(length - start, window.length / 4);
+            for (int i = 0; i < count; ++i) {
+                INTS.set(window, i * 4, Float.floatToIntBits(floats[start + i]));
+            }
+            output.write(window, 0, count * 4);
+            start += count;
+        }
+    }
+
+    static void readDoubles(DataInput input, double[] doubles, int length) throws IOException {
+        byte[] window = window(length, 8);
+        for (int start = 0; start < length; ) {
+            int count = Math.min(length - start, window.length / 8);
+            input.readFully(window, 0, count * 8);
+            for (int i = 0; i < count; ++i) {
+                doubles[start + i] = (double) DOUBLES.get(window, i * 8);
+            }
+            start += count;
+        }
+    }
+
+    static void writeDoubles(DataOutput output, double[] doubles, int length) throws IOException {
+        byte[] window = window(length, 8);
+        for (int start = 0; start < length; ) {
+            int count = Math.min(length - start, window.length / 8);
+            for (int i = 0; i < count; ++i) {
+                LONGS.set(window, i * 8, Double.doubleToLongBits(doubles[start + i]));
+            }
+            output.write(window, 0, count * 8);
+            start += count;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package net.minecraft.nbt;
+
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A DataInput reading straight from a heap or direct ByteBuffer, without an InputStream in between.
+ * <p>
+ * The buffer is read through a big-endian duplicate, so the order and position of the given buffer are left untouched.
+ * Arrays are transferred in bulk by {@link NBTTagByteArray} and {@link NBTTagIntArray} when they see this input.
+ */
+public final class NBTByteBufferInput implements DataInput {
+
+    private final ByteBuffer buffer;
+    /** Whether nested compounds and lists are kept as {@link NBTTagLazy} slices of the buffer instead of decoded. */
+    private final boolean lazy;
+
+    public NBTByteBufferInput(ByteBuffer buffer) {
+        this(buffer, false);
+    }
+
+    NBTByteBufferInput(ByteBuffer buffer, boolean lazy) {
+        this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        this.lazy = lazy;
+    }
+
+    boolean isLazy() {
+        return this.lazy;
+    }
+
+    /**
+     * A view of {@code length} bytes of the buffer starting at the absolute index {@code start}, sharing its content.
+     */
+    ByteBuffer slice(int start, int length) {
+        return this.buffer.slice(start, length);
+    }
+
+    /**
+     * The position of the next byte to be read, relative to the buffer given in the constructor.
+     */
+    public int position() {
+        return this.buffer.position();
+    }
+
+    public int remaining() {
+        return this.buffer.remaining();
+    }
+
+    private void require(long bytes) throws EOFException {
+        if (this.buffer.remaining() < bytes) {
+            throw new EOFException("Tried to read " + bytes + " bytes with only " + this.buffer.remaining() + " left");
+        }
+    }
+
+    /**
+     * Reads {@code length} big-endian integers into the start of the array in a single bulk transfer.
+     */
+    public void readInts(int[] ints, int length) throws IOException {
+        this.require(length * 4L);
+        this.buffer.asIntBuffer().get(ints, 0, length);
+        this.buffer.position(this.buffer.position() + length * 4);
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        this.readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        this.require(len);
+        this.buffer.get(b, off, len);
+    }
+
+    @Override
+    public int skipBytes(int n) {
+        int skipped = Math.max(0, Math.min(n, this.buffer.remaining()));
+        this.buffer.position(this.buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return this.readByte() != 0;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        this.require(1);
+        return this.buffer.get();
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return this.readByte() & 0xFF;
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        this.require(2);
+        return this.buffer.getShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return this.readShort() & 0xFFFF;
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        this.require(2);
+        return this.buffer.getChar();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        this.require(4);
+        return this.buffer.getInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        this.require(8);
+        return this.buffer.getLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        this.require(4);
+        return this.buffer.getFloat();
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        this.require(8);
+        return this.buffer.getDouble();
+    }
+
+    /**
+     * NBT never stores lines, this only exists to complete the DataInput contract.
+     */
+    @Override
+    public String readLine() throws IOException {
+        if (!this.buffer.hasRemaining()) {
+            return null;
+        }
+
+        StringBuilder line = new StringBuilder();
+        while (this.buffer.hasRemaining()) {
+            char c = (char) (this.buffer.get() & 0xFF);
+            if (c == '\n') {
+                break;
+            } else if (c == '\r') {
+                if (this.buffer.hasRemaining() && this.buffer.get(this.buffer.position()) == '\n') {
+                    this.buffer.get();
+                }
+                break;
+            }
+            line.append(c);
+        }
+        return line.toString();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        return this.readUTF(this.readUnsignedShort());
+    }
+
+    /**
+     * Decodes a string whose length header has already been read, straight out of the backing array if there is one.
+     */
+    String readUTF(int length) throws IOException {
+        this.require(length);
+
+        if (this.buffer.hasArray()) {
+            int position = this.buffer.position();
+            String s = NBTStringCodec.decode(this.buffer.array(), this.buffer.arrayOffset() + position, length);
+            this.buffer.position(position + length);
+            return s;
+        }
+
+        byte[] bytes = new byte[length];
+        this.buffer.get(bytes, 0, length);
+        return NBTStringCodec.decode(bytes, 0, length);
+    }
+}
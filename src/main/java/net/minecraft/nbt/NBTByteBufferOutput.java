@@ -0,0 +1,189 @@
+package net.minecraft.nbt;
+
+import java.io.DataOutput;
+import java.io.UTFDataFormatException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A DataOutput writing straight into a ByteBuffer, without an OutputStream in between.
+ * <p>
+ * Wrapping an existing buffer writes into it in place, through a big-endian duplicate, and throws
+ * {@link BufferOverflowException} once it is full. The capacity constructor instead allocates a heap buffer which grows
+ * as needed. Either way the written bytes end at the position of {@link #buffer()}.
+ */
+public final class NBTByteBufferOutput implements DataOutput {
+
+    private ByteBuffer buffer;
+    private final boolean growable;
+
+    public NBTByteBufferOutput(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        this.growable = false;
+    }
+
+    public NBTByteBufferOutput(int initialCapacity) {
+        this.buffer = ByteBuffer.allocate(initialCapacity);
+        this.growable = true;
+    }
+
+    /**
+     * The buffer written to, positioned after the last written byte. Call {@link ByteBuffer#flip()} to read it back.
+     */
+    public ByteBuffer buffer() {
+        return this.buffer;
+    }
+
+    /**
+     * Copies the written bytes out into a new array.
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[this.buffer.position()];
+        this.buffer.duplicate().flip().get(bytes);
+        return bytes;
+    }
+
+    private void ensure(int bytes) {
+        if (this.buffer.remaining() < bytes) {
+            if (!this.growable) {
+                throw new BufferOverflowException();
+            }
+
+            int required = this.buffer.position() + bytes;
+            if (required < 0) {
+                throw new OutOfMemoryError("Required buffer size too large");
+            }
+
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(required, this.buffer.capacity() * 2));
+            this.buffer.flip();
+            grown.put(this.buffer);
+            this.buffer = grown;
+        }
+    }
+
+    /**
+     * Writes the first {@code length} integers of the array big-endian in a single bulk transfer.
+     */
+    public void writeInts(int[] ints, int length) {
+        this.ensure(length * 4);
+        this.buffer.asIntBuffer().put(ints, 0, length);
+        this.buffer.position(this.buffer.position() + length * 4);
+    }
+
+    /**
+     * Copies the remaining bytes of the source buffer, leaving its position untouched.
+     */
+    public void write(ByteBuffer src) {
+        this.ensure(src.remaining());
+        this.buffer.put(src.duplicate());
+    }
+
+    @Override
+    public void write(int b) {
+        this.ensure(1);
+        this.buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b) {
+        this.write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        this.ensure(len);
+        this.buffer.put(b, off, len);
+    }
+
+    @Override
+    public void writeBoolean(boolean v) {
+        this.write(v ? 1 : 0);
+    }
+
+    @Override
+    public void writeByte(int v) {
+        this.write(v);
+    }
+
+    @Override
+    public void writeShort(int v) {
+        this.ensure(2);
+        this.buffer.putShort((short) v);
+    }
+
+    @Override
+    public void writeChar(int v) {
+        this.ensure(2);
+        this.buffer.putChar((char) v);
+    }
+
+    @Override
+    public void writeInt(int v) {
+        this.ensure(4);
+        this.buffer.putInt(v);
+    }
+
+    @Override
+    public void writeLong(long v) {
+        this.ensure(8);
+        this.buffer.putLong(v);
+    }
+
+    @Override
+    public void writeFloat(float v) {
+        this.ensure(4);
+        this.buffer.putFloat(v);
+    }
+
+    @Override
+    public void writeDouble(double v) {
+        this.ensure(8);
+        this.buffer.putDouble(v);
+    }
+
+    @Override
+    public void writeBytes(String s) {
+        int len = s.length();
+        this.ensure(len);
+        for (int i = 0; i < len; ++i) {
+            this.buffer.put((byte) s.charAt(i));
+        }
+    }
+
+    @Override
+    public void writeChars(String s) {
+        int len = s.length();
+        this.ensure(len * 2);
+        for (int i = 0; i < len; ++i) {
+            this.buffer.putChar(s.charAt(i));
+        }
+    }
+
+    /**
+     * Writes the string in modified UTF-8 with a 2-byte length header, the same encoding as
+     * {@link java.io.DataOutputStream#writeUTF(String)}, but without its intermediate byte array.
+     */
+    @Override
+    public void writeUTF(String s) throws UTFDataFormatException {
+        int len = s.length();
+        int utflen = NBTStringCodec.checkedLength(s);
+
+        this.ensure(2 + utflen);
+        this.buffer.putShort((short) utflen);
+
+        for (int i = 0; i < len; ++i) {
+            char c = s.charAt(i);
+            if (c < 0x80 && c != 0) {
+                this.buffer.put((byte) c);
+            } else if (c >= 0x800) {
+                this.buffer.put((byte) (0xE0 | ((c >> 12) & 0x0F)));
+                this.buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                this.buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                this.buffer.put((byte) (0xC0 | ((c >> 6) & 0x1F)));
+                this.buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+}
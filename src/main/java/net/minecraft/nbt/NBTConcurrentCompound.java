@@ -0,0 +1,157 @@
+package net.minecraft.nbt;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * A compound that any number of threads can read and change at the same time without locking.
+ * <p>
+ * It holds the current version as an {@link NBTImmutableCompound}. Reads go to that version without waiting. Changes
+ * build the next version from it and swap it in with a compare-and-set, trying again if another change got there
+ * first. {@link #get()} gives a consistent view to read several values from, and {@link #snapshot()} a mutable copy of
+ * it, for example to save with {@link CompressedStreamTools#write(NBTTagCompound, java.io.DataOutput)} while other
+ * threads keep changing the compound.
+ */
+public final class NBTConcurrentCompound {
+
+    private final AtomicReference<NBTImmutableCompound> current;
+
+    public NBTConcurrentCompound() {
+        this(NBTImmutableCompound.EMPTY);
+    }
+
+    public NBTConcurrentCompound(NBTImmutableCompound compound) {
+        this.current = new AtomicReference<>(compound);
+    }
+
+    /**
+     * Creates a concurrent compound holding a copy of the tags in the given one.
+     */
+    public NBTConcurrentCompound(NBTTagCompound compound) {
+        this(NBTImmutableCompound.of(compound));
+    }
+
+    /**
+     * The current version, which later changes leave as it is.
+     */
+    public NBTImmutableCompound get() {
+        return this.current.get();
+    }
+
+    /**
+     * A mutable copy of the current version, sharing its unchanged values with it.
+     */
+    public NBTTagCompound snapshot() {
+        return this.current.get().toMutable();
+    }
+
+    /**
+     * Replaces the current version with the result of the function, calling it again with the newer version if another
+     * thread changed the compound in the meantime, so it must not have side effects.
+     *
+     * @return the new version
+     */
+    public NBTImmutableCompound update(UnaryOperator<NBTImmutableCompound> function) {
+        return this.current.updateAndGet(function);
+    }
+
+    /**
+     * Replaces the compound under the key, or an empty one if there is none, with the result of the function, in the
+     * same way as {@link #update(UnaryOperator)}.
+     *
+     * @return the new version of the whole compound
+     */
+    public NBTImmutableCompound update(String key, UnaryOperator<NBTImmutableCompound> function) {
+        return this.current.updateAndGet(compound -> compound.with(key, function.apply(compound.getCompoundTag(key))));
+    }
+
+    /**
+     * Replaces the current version if it still is the expected one.
+     */
+    public boolean compareAndSet(NBTImmutableCompound expected, NBTImmutableCompound compound) {
+        return this.current.compareAndSet(expected, compound);
+    }
+
+    /**
+     * Stores a copy of the tag under the key.
+     */
+    public void setTag(String key, NBTBase value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null tag for key " + key);
+        }
+        this.set(key, NBTImmutableCompound.freeze(value));
+    }
+
+    public void setTag(String key, NBTImmutableCompound value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null compound for key " + key);
+        }
+        this.set(key, value);
+    }
+
+    public void setTag(String key, NBTImmutableList value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null list for key " + key);
+        }
+        this.set(key, value);
+    }
+
+    private void set(String key, Object value) {
+        this.current.updateAndGet(compound -> compound.withValue(key, value));
+    }
+
+    public void setByte(String key, byte value) {
+        this.set(key, new NBTTagByte(value));
+    }
+
+    public void setShort(String key, short value) {
+        this.set(key, new NBTTagShort(value));
+    }
+
+    public void setInteger(String key, int value) {
+        this.set(key, new NBTTagInt(value));
+    }
+
+    public void setLong(String key, long value) {
+        this.set(key, new NBTTagLong(value));
+    }
+
+    public void setFloat(String key, float value) {
+        this.set(key, new NBTTagFloat(value));
+    }
+
+    public void setDouble(String key, double value) {
+        this.set(key, new NBTTagDouble(value));
+    }
+
+    public void setString(String key, String value) {
+        this.set(key, new NBTTagString(value));
+    }
+
+    /**
+     * Stores a copy of the array under the key.
+     */
+    public void setByteArray(String key, byte[] value) {
+        this.set(key, value.clone());
+    }
+
+    /**
+     * Stores a copy of the array under the key.
+     */
+    public void setIntArray(String key, int[] value) {
+        this.set(key, value.clone());
+    }
+
+    public void setBoolean(String key, boolean value) {
+        this.setByte(key, (byte) (value ? 1 : 0));
+    }
+
+    public void removeTag(String key) {
+        this.current.updateAndGet(compound -> compound.without(key));
+    }
+
+    @Override
+    public String toString() {
+        return this.current.get().toString();
+    }
+}
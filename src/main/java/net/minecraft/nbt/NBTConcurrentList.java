@@ -0,0 +1,92 @@
+package net.minecraft.nbt;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * A list that any number of threads can read and change at the same time without locking, working the same way as
+ * {@link NBTConcurrentCompound} over an {@link NBTImmutableList}.
+ */
+public final class NBTConcurrentList {
+
+    private final AtomicReference<NBTImmutableList> current;
+
+    public NBTConcurrentList() {
+        this(NBTImmutableList.EMPTY);
+    }
+
+    public NBTConcurrentList(NBTImmutableList list) {
+        this.current = new AtomicReference<>(list);
+    }
+
+    /**
+     * Creates a concurrent list holding a copy of the tags in the given one.
+     */
+    public NBTConcurrentList(NBTTagList list) {
+        this(NBTImmutableList.of(list));
+    }
+
+    /**
+     * The current version, which later changes leave as it is.
+     */
+    public NBTImmutableList get() {
+        return this.current.get();
+    }
+
+    /**
+     * A mutable copy of the current version, sharing its unchanged values with it.
+     */
+    public NBTTagList snapshot() {
+        return this.current.get().toMutable();
+    }
+
+    /**
+     * Replaces the current version with the result of the function, see
+     * {@link NBTConcurrentCompound#update(UnaryOperator)}.
+     *
+     * @return the new version
+     */
+    public NBTImmutableList update(UnaryOperator<NBTImmutableList> function) {
+        return this.current.updateAndGet(function);
+    }
+
+    /**
+     * Replaces the current version if it still is the expected one.
+     */
+    public boolean compareAndSet(NBTImmutableList expected, NBTImmutableList list) {
+        return this.current.compareAndSet(expected, list);
+    }
+
+    /**
+     * Adds a copy of the tag to the end of the list.
+     *
+     * @throws IllegalArgumentException if the tag does not match the type of the list
+     */
+    public void appendTag(NBTBase tag) {
+        Object value = NBTImmutableCompound.freeze(tag); // converted once rather than on every retry
+        this.current.updateAndGet(list -> list.appendValue(value));
+    }
+
+    /**
+     * Replaces the tag at the index with a copy of the given one.
+     *
+     * @throws IllegalArgumentException if the tag does not match the type of the list
+     */
+    public void setTag(int i, NBTBase tag) {
+        Object value = NBTImmutableCompound.freeze(tag);
+        this.current.updateAndGet(list -> list.withValue(i, value));
+    }
+
+    public void removeTag(int i) {
+        this.current.updateAndGet(list -> list.without(i));
+    }
+
+    public int tagCount() {
+        return this.current.get().tagCount();
+    }
+
+    @Override
+    public String toString() {
+        return this.current.get().toString();
+    }
+}
@@ -0,0 +1,261 @@
+package net.minecraft.nbt;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Saves and loads compounds on an executor, so the caller never waits for the disk.
+ * <p>
+ * A save takes an {@link NBTImmutableCompound} snapshot of the compound and queues it for its file, so the caller
+ * may go on changing the compound at once. Saving the file again before the queued save has started replaces the
+ * queued compound and returns the same future, so only the last one is written. The saves of a file are written one
+ * after the other with {@link CompressedStreamTools#safeWrite(NBTTagCompound, File)}, those of different files in
+ * parallel. At most {@code maxQueued} files wait to be written at a time; a save of another file blocks until one of
+ * them has started.
+ * <p>
+ * Loads of a file that is already being read share that read. Loads of a file with a save queued or being written
+ * return a new compound made from that snapshot without reading the file.
+ * <p>
+ * The executor decides the threads the files are written on, for example a fixed pool of platform threads, or a
+ * virtual thread per task executor on Java 21.
+ */
+public final class NBTIOService implements Closeable {
+
+    private final Executor executor;
+    private final int maxQueued;
+    /** The files with a save queued, being written or being read, guarded by this. */
+    private final Map<Path, FileState> files = new HashMap<>();
+    /** The number of files with a save queued. */
+    private int queued;
+    private boolean closed;
+
+    public NBTIOService(Executor executor, int maxQueued) {
+        if (maxQueued <= 0) {
+            throw new IllegalArgumentException("maxQueued must be positive: " + maxQueued);
+        }
+        this.executor = executor;
+        this.maxQueued = maxQueued;
+    }
+
+    private static Path key(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+    /**
+     * Queues the compound to be written to the file. The snapshot is taken before returning, in time proportional to
+     * the size of the compound.
+     *
+     * @return a future completed once the compound, or one saved after it, is on the disk
+     * @throws IllegalStateException if the service is closed
+     */
+    public CompletableFuture<Void> save(File file, NBTTagCompound compound) {
+        NBTImmutableCompound snapshot = NBTImmutableCompound.of(compound);
+        Path path = key(file);
+        FileState state;
+        CompletableFuture<Void> future;
+
+        synchronized (this) {
+            while (true) {
+                if (this.closed) {
+                    throw new IllegalStateException("The service is closed");
+                }
+
+                state = this.files.get(path);
+                if (state != null && state.queued != null) {
+                    state.queued = snapshot; // the last save wins
+                    return state.queuedFuture;
+                } else if (this.queued < this.maxQueued) {
+                    break;
+                }
+
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return CompletableFuture.failedFuture(e);
+                }
+            }
+
+            if (state == null) {
+                state = new FileState();
+                this.files.put(path, state);
+            }
+            state.queued = snapshot;
+            future = state.queuedFuture = new CompletableFuture<>();
+            ++this.queued;
+
+            if (state.writer) {
+                return future; // picked up by the writer of the file once it is done with the last save
+            }
+            state.writer = true;
+        }
+
+        FileState writing = state;
+        try {
+            this.executor.execute(() -> this.writeQueued(path, writing));
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                writing.queued = null;
+                writing.queuedFuture = null;
+                writing.writer = false;
+                --this.queued;
+                this.removeIfIdle(path, writing);
+            }
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Writes the saves queued for the file until there are none left.
+     */
+    private void writeQueued(Path path, FileState state) {
+        while (true) {
+            NBTImmutableCompound snapshot;
+            CompletableFuture<Void> future;
+
+            synchronized (this) {
+                state.writing = null;
+                if (state.queued == null) {
+                    state.writer = false;
+                    this.removeIfIdle(path, state);
+                    return;
+                }
+
+                snapshot = state.writing = state.queued;
+                future = state.queuedFuture;
+                state.queued = null;
+                state.queuedFuture = null;
+                --this.queued;
+                this.notifyAll();
+            }
+
+            try {
+                CompressedStreamTools.safeWrite(snapshot.toMutable(), path.toFile());
+                future.complete(null);
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Reads the compound from the file, see {@link CompressedStreamTools#read(File)}.
+     *
+     * @return a future completed with the compound, or null if the file does not exist
+     * @throws IllegalStateException if the service is closed
+     */
+    public CompletableFuture<NBTTagCompound> load(File file) {
+        Path path = key(file);
+        CompletableFuture<NBTTagCompound> future = new CompletableFuture<>();
+        FileState state;
+        NBTImmutableCompound latest;
+
+        synchronized (this) {
+            if (this.closed) {
+                throw new IllegalStateException("The service is closed");
+            }
+
+            state = this.files.get(path);
+            latest = state == null ? null : state.queued != null ? state.queued : state.writing;
+            if (latest == null) {
+                if (state == null) {
+                    state = new FileState();
+                    this.files.put(path, state);
+                } else if (state.loads != null) {
+                    state.loads.add(future);
+                    return future;
+                }
+                state.loads = new ArrayList<>();
+                state.loads.add(future);
+            }
+        }
+
+        if (latest != null) {
+            // the snapshot never changes, so it is converted outside the lock
+            return CompletableFuture.completedFuture(latest.toMutable());
+        }
+
+        FileState reading = state;
+        try {
+            this.executor.execute(() -> {
+                try {
+                    this.completeLoads(path, reading, CompressedStreamTools.read(path.toFile()), null);
+                } catch (Throwable e) {
+                    this.completeLoads(path, reading, null, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.completeLoads(path, reading, null, e);
+        }
+        return future;
+    }
+
+    /**
+     * Completes every load waiting for the read of the file, each but the first with a copy of its own.
+     */
+    private void completeLoads(Path path, FileState state, NBTTagCompound compound, Throwable failure) {
+        List<CompletableFuture<NBTTagCompound>> loads;
+        synchronized (this) {
+            loads = state.loads;
+            state.loads = null;
+            this.removeIfIdle(path, state);
+        }
+
+        // the first load gets the compound last, so its callbacks cannot change it while it is copied
+        for (int i = loads.size() - 1; i >= 0; --i) {
+            if (failure != null) {
+                loads.get(i).completeExceptionally(failure);
+            } else {
+                loads.get(i).complete(compound == null || i == 0 ? compound : (NBTTagCompound) compound.copy());
+            }
+        }
+    }
+
+    private void removeIfIdle(Path path, FileState state) {
+        if (!state.writer && state.queued == null && state.loads == null) {
+            this.files.remove(path, state);
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Stops taking saves and loads, and waits until those already taken are done.
+     */
+    @Override
+    public synchronized void close() throws InterruptedIOException {
+        this.closed = true;
+        this.notifyAll(); // saves waiting for room fail rather than wait forever
+
+        while (!this.files.isEmpty()) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for saves to finish");
+            }
+        }
+    }
+
+    private static final class FileState {
+
+        /** The snapshot to be written next, or null. */
+        NBTImmutableCompound queued;
+        CompletableFuture<Void> queuedFuture;
+        /** The snapshot being written, or null. Shared with loads, which only read it. */
+        NBTImmutableCompound writing;
+        /** Whether a task is writing the saves of the file. */
+        boolean writer;
+        /** The loads waiting for the file to be read, or null if it is not being read. */
+        List<CompletableFuture<NBTTagCompound>> loads;
+    }
+}
@@ -0,0 +1,389 @@
+package net.minecraft.nbt;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable compound that can be shared between threads without copying.
+ * <p>
+ * Keys are kept sorted in a compact array next to their values. {@link #with} and {@link #without} return a new
+ * version that copies these two arrays but shares every nested compound, list and value with this one. Nested
+ * compounds and lists are {@link NBTImmutableCompound}s and {@link NBTImmutableList}s, and arrays are copied whenever
+ * they are handed out, so nothing reachable from an instance can change. The hash code matches that of the equal
+ * {@link NBTTagCompound} and is computed once.
+ */
+public final class NBTImmutableCompound {
+
+    public static final NBTImmutableCompound EMPTY = new NBTImmutableCompound(new String[0], new Object[0]);
+
+    /** The keys in ascending order. */
+    private final String[] keys;
+    /**
+     * The value for each key: an immutable tag, a byte[] or int[] never handed out, or an immutable compound or list.
+     */
+    private final Object[] values;
+    /** The cached hash code, 0 until computed. */
+    private int hash;
+
+    private NBTImmutableCompound(String[] keys, Object[] values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    /**
+     * Converts a compound and everything nested in it. Primitive and string tags are shared rather than copied.
+     */
+    public static NBTImmutableCompound of(NBTTagCompound compound) {
+        int size = compound.size();
+        if (size == 0) {
+            return EMPTY;
+        }
+
+        String[] keys = new String[size];
+        NBTBase[] tags = new NBTBase[size];
+        int n = 0;
+
+        for (Iterator<Map.Entry<String, NBTBase>> iterator = compound.entryIterator(); iterator.hasNext(); ++n) {
+            Map.Entry<String, NBTBase> entry = iterator.next();
+            keys[n] = entry.getKey();
+            tags[n] = entry.getValue();
+        }
+
+        // sort the keys, carrying the values along
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> keys[a].compareTo(keys[b]));
+
+        String[] sortedKeys = new String[size];
+        Object[] values = new Object[size];
+        for (int i = 0; i < size; ++i) {
+            sortedKeys[i] = keys[order[i]];
+            values[i] = freeze(tags[order[i]]);
+        }
+
+        return new NBTImmutableCompound(sortedKeys, values);
+    }
+
+    /**
+     * Converts back into a new mutable compound. Nested compounds and lists are converted too, while primitives,
+     * strings and arrays are shared until the mutable side changes them.
+     */
+    public NBTTagCompound toMutable() {
+        NBTTagCompound compound = new NBTTagCompound();
+        for (int i = 0; i < this.keys.length; ++i) {
+            compound.setTag(this.keys[i], thaw(this.values[i]));
+        }
+        return compound;
+    }
+
+    /**
+     * A version of this compound with the key set to the tag, which is converted if it can change.
+     */
+    public NBTImmutableCompound with(String key, NBTBase value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null tag for key " + key);
+        }
+        return this.withValue(key, freeze(value));
+    }
+
+    public NBTImmutableCompound with(String key, NBTImmutableCompound value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null compound for key " + key);
+        }
+        return this.withValue(key, value);
+    }
+
+    public NBTImmutableCompound with(String key, NBTImmutableList value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null list for key " + key);
+        }
+        return this.withValue(key, value);
+    }
+
+    /**
+     * A version of this compound with the key set to a value made by {@link #freeze}, or an immutable compound or list.
+     */
+    NBTImmutableCompound withValue(String key, Object value) {
+        int i = this.indexOf(key);
+
+        if (i >= 0) {
+            if (this.values[i] == value) {
+                return this;
+            }
+            // the keys stay the same, so only the values are copied
+            Object[] values = this.values.clone();
+            values[i] = value;
+            return new NBTImmutableCompound(this.keys, values);
+        }
+
+        int at = -(i + 1);
+        String[] keys = new String[this.keys.length + 1];
+        Object[] values = new Object[keys.length];
+        System.arraycopy(this.keys, 0, keys, 0, at);
+        System.arraycopy(this.values, 0, values, 0, at);
+        keys[at] = key;
+        values[at] = value;
+        System.arraycopy(this.keys, at, keys, at + 1, this.keys.length - at);
+        System.arraycopy(this.values, at, values, at + 1, this.keys.length - at);
+        return new NBTImmutableCompound(keys, values);
+    }
+
+    /**
+     * A version of this compound without the key, or this compound if it has no such key.
+     */
+    public NBTImmutableCompound without(String key) {
+        int i = this.indexOf(key);
+
+        if (i < 0) {
+            return this;
+        } else if (this.keys.length == 1) {
+            return EMPTY;
+        }
+
+        String[] keys = new String[this.keys.length - 1];
+        Object[] values = new Object[keys.length];
+        System.arraycopy(this.keys, 0, keys, 0, i);
+        System.arraycopy(this.values, 0, values, 0, i);
+        System.arraycopy(this.keys, i + 1, keys, i, keys.length - i);
+        System.arraycopy(this.values, i + 1, values, i, keys.length - i);
+        return new NBTImmutableCompound(keys, values);
+    }
+
+    private int indexOf(String key) {
+        return Arrays.binarySearch(this.keys, key);
+    }
+
+    private Object get(String key) {
+        int i = key == null ? -1 : this.indexOf(key);
+        return i >= 0 ? this.values[i] : null;
+    }
+
+    /**
+     * The keys in ascending order, as an unmodifiable set.
+     */
+    public Set<String> keySet() {
+        return new AbstractSet<>() {
+
+            @Override
+            public Iterator<String> iterator() {
+                return Arrays.asList(NBTImmutableCompound.this.keys).iterator();
+            }
+
+            @Override
+            public int size() {
+                return NBTImmutableCompound.this.keys.length;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String key && NBTImmutableCompound.this.indexOf(key) >= 0;
+            }
+        };
+    }
+
+    public int size() {
+        return this.keys.length;
+    }
+
+    public boolean hasNoTags() {
+        return this.keys.length == 0;
+    }
+
+    public boolean hasKey(String key) {
+        return this.get(key) != null;
+    }
+
+    public boolean hasKey(String key, int type) {
+        byte tagType = this.getTagType(key);
+        return tagType == type || type == 99 && tagType >= 1 && tagType <= 6;
+    }
+
+    public byte getTagType(String key) {
+        Object value = this.get(key);
+        return value != null ? typeOf(value) : 0;
+    }
+
+    public byte getByte(String key) {
+        return this.get(key) instanceof NBTBase.NBTPrimitive primitive ? primitive.toByte() : 0;
+    }
+
+    public short getShort(String key) {
+        return this.get(key) instanceof NBTBase.NBTPrimitive primitive ? primitive.toShort() : 0;
+    }
+
+    public int getInteger(String key) {
+        return this.get(key) instanceof NBTBase.NBTPrimitive primitive ? primitive.toInt() : 0;
+    }
+
+    public long getLong(String key) {
+        return this.get(key) instanceof NBTBase.NBTPrimitive primitive ? primitive.toLong() : 0L;
+    }
+
+    public float getFloat(String key) {
+        return this.get(key) instanceof NBTBase.NBTPrimitive primitive ? primitive.toFloat() : 0.0F;
+    }
+
+    public double getDouble(String key) {
+        return this.get(key) instanceof NBTBase.NBTPrimitive primitive ? primitive.toDouble() : 0.0D;
+    }
+
+    public boolean getBoolean(String key) {
+        return this.getByte(key) != 0;
+    }
+
+    public String getString(String key) {
+        Object value = this.get(key);
+        return value instanceof NBTBase tag ? tag.toStringValue() : value != null ? valueToString(value) : "";
+    }
+
+    /**
+     * A copy of the byte array for the key, or a zero-length array if there is none.
+     */
+    public byte[] getByteArray(String key) {
+        return this.get(key) instanceof byte[] bytes ? bytes.clone() : new byte[0];
+    }
+
+    /**
+     * A copy of the int array for the key, or a zero-length array if there is none.
+     */
+    public int[] getIntArray(String key) {
+        return this.get(key) instanceof int[] ints ? ints.clone() : new int[0];
+    }
+
+    /**
+     * The compound for the key, or {@link #EMPTY} if there is none.
+     */
+    public NBTImmutableCompound getCompoundTag(String key) {
+        return this.get(key) instanceof NBTImmutableCompound compound ? compound : EMPTY;
+    }
+
+    /**
+     * The list for the key if it holds tags of the given type, or {@link NBTImmutableList#EMPTY} otherwise.
+     */
+    public NBTImmutableList getTagList(String key, int type) {
+        if (this.get(key) instanceof NBTImmutableList list && (list.tagCount() == 0 || list.getTagType() == type)) {
+            return list;
+        }
+        return NBTImmutableList.EMPTY;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof NBTImmutableCompound compound)
+            || this.keys.length != compound.keys.length
+            || this.hash != 0 && compound.hash != 0 && this.hash != compound.hash) {
+            return false;
+        }
+
+        for (int i = 0; i < this.keys.length; ++i) {
+            if (!this.keys[i].equals(compound.keys[i]) || !valueEquals(this.values[i], compound.values[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = this.hash;
+
+        if (hash == 0) {
+            int entries = 0;
+            for (int i = 0; i < this.keys.length; ++i) {
+                entries += this.keys[i].hashCode() ^ valueHash(this.values[i]);
+            }
+            hash = 10 ^ entries;
+            this.hash = hash;
+        }
+
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder("{");
+        for (int i = 0; i < this.keys.length; ++i) {
+            s.append(this.keys[i]).append(':').append(valueToString(this.values[i])).append(',');
+        }
+        return s + "}";
+    }
+
+    /**
+     * The immutable form of a tag: primitive and string tags as they are, arrays as private copies, compounds and lists
+     * converted.
+     */
+    static Object freeze(NBTBase tag) {
+        if (tag instanceof NBTTagLazy lazy) {
+            tag = lazy.resolve();
+        }
+
+        return switch (tag.getType()) {
+            // copy() leaves the source alone even when its array is shared
+            case 7 -> ((NBTTagByteArray) tag.copy()).getByteArray();
+            case 9 -> NBTImmutableList.of((NBTTagList) tag);
+            case 10 -> of((NBTTagCompound) tag);
+            case 11 -> ((NBTTagIntArray) tag.copy()).getIntArray();
+            default -> tag;
+        };
+    }
+
+    /**
+     * The mutable tag for a value made by {@link #freeze}.
+     */
+    static NBTBase thaw(Object value) {
+        if (value instanceof byte[] bytes) {
+            return new NBTTagByteArray(bytes, true);
+        } else if (value instanceof int[] ints) {
+            return new NBTTagIntArray(ints, true);
+        } else if (value instanceof NBTImmutableCompound compound) {
+            return compound.toMutable();
+        } else if (value instanceof NBTImmutableList list) {
+            return list.toMutable();
+        }
+        return (NBTBase) value;
+    }
+
+    static byte typeOf(Object value) {
+        if (value instanceof NBTBase tag) {
+            return tag.getType();
+        } else if (value instanceof byte[]) {
+            return 7;
+        } else if (value instanceof int[]) {
+            return 11;
+        }
+        return value instanceof NBTImmutableList ? (byte) 9 : (byte) 10;
+    }
+
+    /**
+     * The hash code of the mutable tag for the value.
+     */
+    static int valueHash(Object value) {
+        if (value instanceof byte[] bytes) {
+            return 7 ^ Arrays.hashCode(bytes);
+        } else if (value instanceof int[] ints) {
+            return 11 ^ Arrays.hashCode(ints);
+        }
+        return value.hashCode();
+    }
+
+    static boolean valueEquals(Object a, Object b) {
+        if (a instanceof byte[] bytes) {
+            return b instanceof byte[] other && Arrays.equals(bytes, other);
+        } else if (a instanceof int[] ints) {
+            return b instanceof int[] other && Arrays.equals(ints, other);
+        }
+        return a.equals(b);
+    }
+
+    static String valueToString(Object value) {
+        return value instanceof byte[] || value instanceof int[] ? thaw(value).toString() : value.toString();
+    }
+}
@@ -0,0 +1,305 @@
+package net.minecraft.nbt;
+
+import java.util.Arrays;
+
+/**
+ * An immutable list that can be shared between threads without copying, the counterpart of {@link NBTTagList} to
+ * {@link NBTImmutableCompound}.
+ * <p>
+ * A list of primitives keeps its unboxed values in a list made by {@link NBTTagList#copyOnWrite()}, so converting it
+ * either way takes constant time. Other lists keep their values in an array in the same form as the values of an
+ * {@link NBTImmutableCompound}. {@link #with}, {@link #append} and {@link #without} return a new version that shares
+ * every element with this one.
+ */
+public final class NBTImmutableList {
+
+    public static final NBTImmutableList EMPTY = new NBTImmutableList((byte) 0, null, new Object[0]);
+
+    /** The type byte for the elements in the list. */
+    private final byte tagType;
+    /**
+     * The values of a list of primitives, or null if the elements are used instead. It is never changed or handed
+     * out, and is always marked as shared so that handing out copies of it only writes what is already there.
+     */
+    private final NBTTagList primitives;
+    /** The values of any other list, see {@link NBTImmutableCompound#freeze}, or null for a list of primitives. */
+    private final Object[] elements;
+    /** The cached hash code, 0 until computed. */
+    private int hash;
+
+    private NBTImmutableList(byte tagType, NBTTagList primitives, Object[] elements) {
+        this.tagType = tagType;
+        this.primitives = primitives;
+        this.elements = elements;
+    }
+
+    private static boolean isPrimitive(byte type) {
+        return type >= 1 && type <= 6;
+    }
+
+    /**
+     * Converts a list and everything nested in it.
+     */
+    public static NBTImmutableList of(NBTTagList list) {
+        byte type = (byte) list.getTagType();
+
+        if (isPrimitive(type)) {
+            return new NBTImmutableList(type, list.copyOnWrite(), null);
+        } else if (list.tagCount() == 0) {
+            return type == 0 ? EMPTY : new NBTImmutableList(type, null, new Object[0]);
+        }
+
+        Object[] elements = new Object[list.tagCount()];
+        for (int i = 0; i < elements.length; ++i) {
+            elements[i] = NBTImmutableCompound.freeze(list.element(i));
+        }
+        return new NBTImmutableList(type, null, elements);
+    }
+
+    /**
+     * Converts back into a new mutable list. Nested compounds and lists are converted too, while everything else is
+     * shared until the mutable side changes it.
+     */
+    public NBTTagList toMutable() {
+        if (this.primitives != null) {
+            return this.primitives.copyOnWrite();
+        }
+
+        NBTTagList list = new NBTTagList();
+        for (Object element : this.elements) {
+            list.appendTag(NBTImmutableCompound.thaw(element));
+        }
+        return list;
+    }
+
+    /**
+     * A version of this list with the tag at the index replaced by the tag, which is converted if it can change.
+     *
+     * @throws IllegalArgumentException if the tag does not match the type of the list
+     */
+    public NBTImmutableList with(int i, NBTBase tag) {
+        return this.withValue(i, NBTImmutableCompound.freeze(tag));
+    }
+
+    public NBTImmutableList with(int i, NBTImmutableCompound compound) {
+        return this.withValue(i, compound);
+    }
+
+    public NBTImmutableList with(int i, NBTImmutableList list) {
+        return this.withValue(i, list);
+    }
+
+    /**
+     * A version of this list with the value at the index replaced by one made by {@link NBTImmutableCompound#freeze},
+     * or an immutable compound or list.
+     */
+    NBTImmutableList withValue(int i, Object value) {
+        this.checkIndex(i, this.tagCount());
+        byte type = this.checkType(value);
+
+        if (this.primitives != null) {
+            NBTTagList primitives = this.primitives.copyOnWrite();
+            primitives.setTag(i, (NBTBase) value);
+            return new NBTImmutableList(type, primitives.copyOnWrite(), null);
+        }
+
+        Object[] elements = this.elements.clone();
+        elements[i] = value;
+        return new NBTImmutableList(type, null, elements);
+    }
+
+    /**
+     * A version of this list with the tag, converted if it can change, added to the end.
+     *
+     * @throws IllegalArgumentException if the tag does not match the type of the list
+     */
+    public NBTImmutableList append(NBTBase tag) {
+        return this.appendValue(NBTImmutableCompound.freeze(tag));
+    }
+
+    public NBTImmutableList append(NBTImmutableCompound compound) {
+        return this.appendValue(compound);
+    }
+
+    public NBTImmutableList append(NBTImmutableList list) {
+        return this.appendValue(list);
+    }
+
+    /**
+     * A version of this list with a value made by {@link NBTImmutableCompound#freeze}, or an immutable compound or
+     * list, added to the end.
+     */
+    NBTImmutableList appendValue(Object value) {
+        byte type = this.checkType(value);
+
+        if (this.primitives != null || this.tagCount() == 0 && isPrimitive(type)) {
+            NBTTagList primitives = this.primitives != null ? this.primitives.copyOnWrite() : new NBTTagList();
+            primitives.appendTag((NBTBase) value);
+            return new NBTImmutableList(type, primitives.copyOnWrite(), null);
+        }
+
+        Object[] elements = Arrays.copyOf(this.elements, this.elements.length + 1);
+        elements[this.elements.length] = value;
+        return new NBTImmutableList(type, null, elements);
+    }
+
+    /**
+     * A version of this list without the tag at the index.
+     */
+    public NBTImmutableList without(int i) {
+        this.checkIndex(i, this.tagCount());
+
+        if (this.primitives != null) {
+            NBTTagList primitives = this.primitives.copyOnWrite();
+            primitives.removeTag(i);
+            return new NBTImmutableList(this.tagType, primitives.copyOnWrite(), null);
+        }
+
+        Object[] elements = new Object[this.elements.length - 1];
+        System.arraycopy(this.elements, 0, elements, 0, i);
+        System.arraycopy(this.elements, i + 1, elements, i, elements.length - i);
+        return new NBTImmutableList(this.tagType, null, elements);
+    }
+
+    private void checkIndex(int i, int size) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+        }
+    }
+
+    private byte checkType(Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null tag for a list of " + NBTBase.NBTTypes[this.tagType]);
+        }
+
+        byte type = NBTImmutableCompound.typeOf(value);
+        if (this.tagCount() > 0 && type != this.tagType || type == 0) {
+            throw new IllegalArgumentException(
+                "Mismatching tag type " + NBTBase.NBTTypes[type] + " for a list of " + NBTBase.NBTTypes[this.tagType]);
+        }
+        return type;
+    }
+
+    /**
+     * Returns the number of tags in the list.
+     */
+    public int tagCount() {
+        return this.primitives != null ? this.primitives.tagCount() : this.elements.length;
+    }
+
+    public int getTagType() {
+        return this.tagType;
+    }
+
+    private Object get(int i, int type) {
+        return this.primitives == null && this.tagType == type && i >= 0 && i < this.elements.length
+            ? this.elements[i]
+            : null;
+    }
+
+    public byte getByte(int i) {
+        return this.primitives != null ? this.primitives.getByte(i) : 0;
+    }
+
+    public short getShort(int i) {
+        return this.primitives != null ? this.primitives.getShort(i) : 0;
+    }
+
+    public int getInteger(int i) {
+        return this.primitives != null ? this.primitives.getInteger(i) : 0;
+    }
+
+    public long getLong(int i) {
+        return this.primitives != null ? this.primitives.getLong(i) : 0L;
+    }
+
+    public float getFloat(int i) {
+        return this.primitives != null ? this.primitives.getFloat(i) : 0.0F;
+    }
+
+    public double getDouble(int i) {
+        return this.primitives != null ? this.primitives.getDouble(i) : 0.0D;
+    }
+
+    /**
+     * A copy of the byte array at the index, or a zero-length array if there is none.
+     */
+    public byte[] getByteArray(int i) {
+        return this.get(i, 7) instanceof byte[] bytes ? bytes.clone() : new byte[0];
+    }
+
+    public String getString(int i) {
+        return this.get(i, 8) instanceof NBTTagString string ? string.toStringValue() : "";
+    }
+
+    public NBTImmutableList getList(int i) {
+        return this.get(i, 9) instanceof NBTImmutableList list ? list : EMPTY;
+    }
+
+    public NBTImmutableCompound getCompound(int i) {
+        return this.get(i, 10) instanceof NBTImmutableCompound compound ? compound : NBTImmutableCompound.EMPTY;
+    }
+
+    /**
+     * A copy of the int array at the index, or a zero-length array if there is none.
+     */
+    public int[] getIntArray(int i) {
+        return this.get(i, 11) instanceof int[] ints ? ints.clone() : new int[0];
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof NBTImmutableList list)
+            || this.tagType != list.tagType
+            || this.hash != 0 && list.hash != 0 && this.hash != list.hash) {
+            return false;
+        } else if (this.primitives != null) {
+            return this.primitives.equals(list.primitives);
+        } else if (this.elements.length != list.elements.length) {
+            return false;
+        }
+
+        for (int i = 0; i < this.elements.length; ++i) {
+            if (!NBTImmutableCompound.valueEquals(this.elements[i], list.elements[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = this.hash;
+
+        if (hash == 0) {
+            if (this.primitives != null) {
+                hash = this.primitives.computeHash(); // leaves its cache alone, other threads may be reading
+            } else {
+                int elements = 1;
+                for (Object element : this.elements) {
+                    elements = 31 * elements + NBTImmutableCompound.valueHash(element);
+                }
+                hash = 9 ^ elements;
+            }
+            this.hash = hash;
+        }
+
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        if (this.primitives != null) {
+            return this.primitives.toString();
+        }
+
+        StringBuilder s = new StringBuilder("[");
+        for (int i = 0; i < this.elements.length; ++i) {
+            s.append(i).append(':').append(NBTImmutableCompound.valueToString(this.elements[i])).append(',');
+        }
+        return s + "]";
+    }
+}
@@ -0,0 +1,155 @@
+package net.minecraft.nbt;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A global, bounded pool of compound keys, so that every decoded {@code "id"} or {@code "Count"} is the same String.
+ * <p>
+ * Keys are looked up by their raw modified UTF-8 bytes, so a pooled key is neither decoded nor allocated again. The
+ * pool is a fixed open-addressing table updated with compare-and-set. Once the few slots a key may hash to are taken,
+ * the key replaces one of them, so a flood of one-off keys from untrusted data cannot keep the keys read over and over
+ * out of the pool for good. It is seeded with the keys vanilla and Forge write, which are never replaced.
+ */
+final class NBTKeyPool {
+
+    private static final int SLOTS = 4096;
+    /** How many slots are tried per key before it replaces one of them. */
+    private static final int PROBES = 8;
+    /** Longer keys are rare and not worth a slot. */
+    private static final int MAX_LENGTH = 64;
+
+    private static final AtomicReferenceArray<Entry> TABLE = new AtomicReferenceArray<>(SLOTS);
+
+    private static final String[] VOCABULARY = {
+        "id", "Count", "Damage", "tag", "Slot", "Items", "Inventory", "EnderItems", "display", "Name", "Lore", "color",
+        "ench", "lvl", "Enchantments", "StoredEnchantments", "RepairCost", "Unbreakable", "HideFlags",
+        "AttributeModifiers", "AttributeName", "Amount", "Operation", "UUIDMost", "UUIDLeast", "SkullOwner",
+        "BlockEntityTag", "CustomName", "CustomPotionEffects", "Potion", "ForgeCaps", "ForgeData", "Parent",
+        "Pos", "Motion", "Rotation", "FallDistance", "Fire", "Air", "OnGround", "Dimension", "Invulnerable",
+        "PortalCooldown", "Passengers", "Tags", "Glowing", "Silent", "NoGravity", "CustomNameVisible", "Team",
+        "Health", "AbsorptionAmount", "HurtTime", "HurtByTimestamp", "DeathTime", "Attributes", "Base", "Modifiers",
+        "ActiveEffects", "Id", "Amplifier", "Duration", "Ambient", "ShowParticles", "HandItems", "ArmorItems",
+        "HandDropChances", "ArmorDropChances", "CanPickUpLoot", "PersistenceRequired", "LeftHanded", "Leashed",
+        "Age", "Owner", "SelectedItemSlot", "Score", "XpLevel", "XpP", "XpTotal", "XpSeed", "foodLevel",
+        "foodSaturationLevel", "foodExhaustionLevel", "foodTickTimer", "playerGameType", "abilities", "Sleeping",
+        "SleepTimer", "SpawnX", "SpawnY", "SpawnZ", "SpawnForced",
+        "Level", "xPos", "zPos", "LastUpdate", "InhabitedTime", "TerrainPopulated", "LightPopulated", "Biomes",
+        "HeightMap", "Sections", "Y", "Blocks", "Add", "Data", "BlockLight", "SkyLight", "Entities", "TileEntities",
+        "TileTicks", "x", "y", "z", "i", "t", "p", "DataVersion", "Properties", "Value", "Signature", "textures"
+    };
+
+    static {
+        try {
+            for (String key : VOCABULARY) {
+                byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+                intern(bytes, bytes.length, key);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // never decodes, the strings are given
+        }
+    }
+
+    private NBTKeyPool() {}
+
+    /**
+     * Reads a key the way {@link DataInput#readUTF()} does, returning the pooled instance where there is one.
+     */
+    static String readKey(DataInput input) throws IOException {
+        return readKey(input, input.readUnsignedShort());
+    }
+
+    /**
+     * Reads a key, charging the tracker for its header and encoded bytes.
+     */
+    static String readKey(DataInput input, NBTSizeTracker sizeTracker) throws IOException {
+        int length = input.readUnsignedShort();
+        sizeTracker.accumulateSize(16 + 8L * length);
+        return readKey(input, length);
+    }
+
+    /**
+     * Reads a key whose length header has already been read.
+     */
+    static String readKey(DataInput input, int length) throws IOException {
+        if (length > MAX_LENGTH) {
+            return NBTStringCodec.read(input, length);
+        }
+
+        byte[] bytes = new byte[length];
+        input.readFully(bytes, 0, length);
+        return intern(bytes, length, null);
+    }
+
+    /**
+     * The pooled String for the first {@code length} bytes, adding {@code value} (or else the decoded bytes) if the
+     * key is not pooled yet. The given value is a seed and stays pooled.
+     */
+    private static String intern(byte[] bytes, int length, String value) throws IOException {
+        int hash = 1;
+        for (int i = 0; i < length; ++i) {
+            hash = 31 * hash + bytes[i];
+        }
+        hash ^= hash >>> 16;
+
+        Entry added = null;
+        int victim = -1;
+        Entry replaced = null;
+
+        for (int probe = 0; probe < PROBES; ++probe) {
+            int slot = (hash + probe) & (SLOTS - 1);
+            Entry entry = TABLE.get(slot);
+
+            if (entry == null) {
+                if (added == null) {
+                    added = newEntry(bytes, length, value);
+                }
+
+                if (TABLE.compareAndSet(slot, null, added)) {
+                    return added.key;
+                }
+
+                entry = TABLE.get(slot);
+            }
+
+            if (Arrays.equals(entry.bytes, 0, entry.bytes.length, bytes, 0, length)) {
+                return entry.key;
+            } else if (!entry.seed) {
+                // the last slot probed is replaced if none is free or matches
+                victim = slot;
+                replaced = entry;
+            }
+        }
+
+        if (added == null) {
+            added = newEntry(bytes, length, value);
+        }
+        if (victim >= 0) {
+            TABLE.compareAndSet(victim, replaced, added); // losing the race only means one key is not pooled
+        }
+        return added.key;
+    }
+
+    private static Entry newEntry(byte[] bytes, int length, String value) throws IOException {
+        String key = value != null ? value : NBTStringCodec.decode(bytes, 0, length);
+        return new Entry(bytes.length == length ? bytes : Arrays.copyOf(bytes, length), key, value != null);
+    }
+
+    private static final class Entry {
+
+        final byte[] bytes;
+        final String key;
+        /** Whether the key is one of the vocabulary, which is never replaced. */
+        final boolean seed;
+
+        Entry(byte[] bytes, String key, boolean seed) {
+            this.bytes = bytes;
+            this.key = key;
+            this.seed = seed;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package net.minecraft.nbt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Writes a compound on a {@link ForkJoinPool}, see {@link CompressedStreamTools#write(NBTTagCompound, DataOutput,
+ * ForkJoinPool)}.
+ * <p>
+ * Every compound or list among the children of the root, and among the children of compounds below it down to
+ * {@link #FORK_DEPTH}, is encoded by a task of its own into a separate buffer. The buffers are then written in the
+ * order of the entries, so the result is exactly what the sequential writer produces. Compression splits the encoded
+ * bytes into blocks of {@link #BLOCK_SIZE} and compresses each on its own into a gzip member; gzip readers, including
+ * {@link CompressionCodec#GZIP}, read such members back to back as one stream.
+ * <p>
+ * The tasks read the compound from several threads at once, so it must not be changed until the call returns.
+ */
+final class NBTParallelWriter {
+
+    /** The depth down to which the children of compounds are encoded by tasks of their own. */
+    private static final int FORK_DEPTH = 2;
+    /** The number of uncompressed bytes in each gzip member. */
+    static final int BLOCK_SIZE = 1 << 20;
+
+    private NBTParallelWriter() {}
+
+    /**
+     * Encodes the payload of the compound into buffers, each positioned after its last byte.
+     */
+    private static List<ByteBuffer> encode(NBTTagCompound compound, ForkJoinPool pool) throws IOException {
+        try {
+            return pool.invoke(new CompoundTask(compound, 0));
+        } catch (RuntimeException e) {
+            throw unwrap(e);
+        }
+    }
+
+    static void write(NBTTagCompound compound, DataOutput output, ForkJoinPool pool) throws IOException {
+        List<ByteBuffer> buffers = encode(compound, pool);
+        output.writeByte(compound.getType());
+        NBTStringCodec.write(output, "");
+
+        for (ByteBuffer buffer : buffers) {
+            output.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+        }
+    }
+
+    /**
+     * Writes the compound as gzip members compressed in parallel.
+     */
+    static void writeCompressed(NBTTagCompound compound, OutputStream output, int level, ForkJoinPool pool)
+        throws IOException {
+        NBTByteBufferOutput encoded = new NBTByteBufferOutput(8192);
+        write(compound, encoded, pool);
+        byte[] bytes = encoded.buffer().array();
+        int length = encoded.buffer().position();
+
+        CompressionCodec codec = CompressionCodec.gzip(level, 8192);
+        List<ForkJoinTask<byte[]>> members = new ArrayList<>();
+        for (int offset = 0; offset < length; offset += BLOCK_SIZE) {
+            int start = offset;
+            int end = Math.min(length, offset + BLOCK_SIZE);
+            members.add(pool.submit(() -> {
+                ByteArrayOutputStream member = new ByteArrayOutputStream(Math.max(64, (end - start) / 4));
+                try (OutputStream out = codec.compress(member)) {
+                    out.write(bytes, start, end - start);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return member.toByteArray();
+            }));
+        }
+
+        try {
+            for (ForkJoinTask<byte[]> member : members) {
+                output.write(member.join());
+            }
+        } catch (RuntimeException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * The IOException that failed a task, or the exception itself if there is none.
+     */
+    private static IOException unwrap(RuntimeException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException ioException) {
+                return ioException;
+            }
+        }
+        throw e;
+    }
+
+    /**
+     * Encodes a single tag, without its type and key.
+     */
+    @SuppressWarnings("serial") // tasks are never serialized
+    private static final class TagTask extends RecursiveTask<List<ByteBuffer>> {
+
+        private final NBTBase tag;
+
+        TagTask(NBTBase tag) {
+            this.tag = tag;
+        }
+
+        @Override
+        protected List<ByteBuffer> compute() {
+            NBTByteBufferOutput output = new NBTByteBufferOutput(256);
+            try {
+                this.tag.write(output);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return List.of(output.buffer());
+        }
+    }
+
+    /**
+     * Encodes the entries of a compound, forking the compounds and lists among them.
+     */
+    @SuppressWarnings("serial") // tasks are never serialized
+    private static final class CompoundTask extends RecursiveTask<List<ByteBuffer>> {
+
+        private final NBTTagCompound compound;
+        private final int depth;
+
+        CompoundTask(NBTTagCompound compound, int depth) {
+            this.compound = compound;
+            this.depth = depth;
+        }
+
+        @Override
+        protected List<ByteBuffer> compute() {
+            // the buffers written here and the tasks forked in between, in order
+            List<Object> parts = new ArrayList<>();
+            NBTByteBufferOutput output = new NBTByteBufferOutput(256);
+
+            try {
+                for (Iterator<Map.Entry<String, NBTBase>> iterator = this.compound.entryIterator();
+                    iterator.hasNext(); ) {
+                    Map.Entry<String, NBTBase> entry = iterator.next();
+                    NBTBase value = entry.getValue();
+                    output.writeByte(value.getType());
+                    NBTStringCodec.write(output, entry.getKey());
+
+                    if (value.getType() != 9 && value.getType() != 10) {
+                        value.write(output);
+                        continue;
+                    }
+
+                    RecursiveTask<List<ByteBuffer>> task = value instanceof NBTTagCompound child
+                        && this.depth + 1 < FORK_DEPTH ? new CompoundTask(child, this.depth + 1) : new TagTask(value);
+                    parts.add(output.buffer());
+                    parts.add(task.fork());
+                    output = new NBTByteBufferOutput(256);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            output.writeByte(0);
+            parts.add(output.buffer());
+
+            List<ByteBuffer> buffers = new ArrayList<>();
+            for (Object part : parts) {
+                if (part instanceof ByteBuffer buffer) {
+                    buffers.add(buffer);
+                } else {
+                    @SuppressWarnings("unchecked")
+                    ForkJoinTask<List<ByteBuffer>> task = (ForkJoinTask<List<ByteBuffer>>) part;
+                    buffers.addAll(task.join());
+                }
+            }
+            return buffers;
+        }
+    }
+}
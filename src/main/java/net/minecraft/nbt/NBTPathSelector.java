@@ -0,0 +1,117 @@
+package net.minecraft.nbt;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A compiled set of paths selecting parts of a compound, used by
+ * {@link CompressedStreamTools#read(DataInput, NBTPathSelector, NBTSizeTracker)} to decode only those parts.
+ * <p>
+ * A path is a list of compound keys separated by dots, where {@code [*]} after a key descends into every element of a
+ * list, for example {@code Level.xPos} or {@code Inventory[*].id}. The value at the end of a path is decoded whole.
+ * Keys containing dots or brackets cannot be selected.
+ */
+public final class NBTPathSelector {
+
+    /** Whether the whole value at this node is selected. */
+    private boolean all;
+    /** The selected keys, if this node is a compound. */
+    private final Map<String, NBTPathSelector> keys = new HashMap<>();
+    /** The selection applied to every element, if this node is a list. */
+    private NBTPathSelector elements;
+
+    private NBTPathSelector() {}
+
+    public static NBTPathSelector compile(Collection<String> paths) {
+        NBTPathSelector root = new NBTPathSelector();
+
+        for (String path : paths) {
+            NBTPathSelector node = root;
+
+            for (String segment : path.split("\\.", -1)) {
+                int bracket = segment.indexOf('[');
+                String key = bracket < 0 ? segment : segment.substring(0, bracket);
+
+                if (key.isEmpty()) {
+                    throw new IllegalArgumentException("Empty key in path " + path);
+                }
+
+                node = node.keys.computeIfAbsent(key, k -> new NBTPathSelector());
+
+                for (int i = bracket; i >= 0 && i < segment.length(); i += 3) {
+                    if (!segment.startsWith("[*]", i)) {
+                        throw new IllegalArgumentException("Only [*] is supported after a key, in path " + path);
+                    }
+
+                    if (node.elements == null) {
+                        node.elements = new NBTPathSelector();
+                    }
+                    node = node.elements;
+                }
+            }
+
+            node.all = true;
+        }
+
+        return root;
+    }
+
+    /**
+     * Reads a value of the given type, decoding the selected parts and skipping everything else.
+     *
+     * @return the pruned value, or null if nothing below this node could be selected
+     */
+    NBTBase read(byte type, DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
+        if (this.all) {
+            return NBTTagCompound.read(type, "", input, depth, sizeTracker);
+        } else if (type == 10 && !this.keys.isEmpty()) {
+            sizeTracker.checkDepth(depth);
+
+            sizeTracker.accumulate(32, 1);
+            NBTTagCompound compound = new NBTTagCompound();
+            byte tagType;
+
+            while ((tagType = input.readByte()) != 0) {
+                int keyLength = input.readUnsignedShort();
+                String key = NBTKeyPool.readKey(input, keyLength);
+                NBTPathSelector selector = this.keys.get(key);
+
+                if (selector == null) {
+                    NBTBase.Type.byId(tagType).skip(input, depth + 1, sizeTracker);
+                } else {
+                    sizeTracker.accumulateSize(8 + 16 + 8L * keyLength);
+                    NBTBase value = selector.read(tagType, input, depth + 1, sizeTracker);
+
+                    if (value != null) {
+                        compound.setTag(key, value);
+                    }
+                }
+            }
+
+            return compound;
+        } else if (type == 9 && this.elements != null) {
+            sizeTracker.checkDepth(depth);
+
+            sizeTracker.accumulate(32 + 8 + 32, 1);
+            byte elementType = input.readByte();
+            int count = input.readInt();
+            NBTTagList list = new NBTTagList();
+
+            for (int i = 0; i < count; ++i) {
+                NBTBase element = this.elements.read(elementType, input, depth + 1, sizeTracker);
+
+                if (element != null) {
+                    list.appendTag(element);
+                }
+            }
+
+            return list;
+        } else {
+            NBTBase.Type.byId(type).skip(input, depth, sizeTracker);
+            return null;
+        }
+    }
+}
@@ -1,30 +1,124 @@
 package net.minecraft.nbt;
 
+/**
+ * Accounts for the memory a tree being read will take, failing the read once it goes over budget.
+ * <p>
+ * Sizes are given in bits. Besides the size, a tracker can bound the number of tags read and the nesting depth, which
+ * is never more than 512. {@link #UNLIMITED} is a plain instance that skips all bookkeeping, so it shares the call
+ * sites of real trackers and is never written to from many threads at once.
+ */
 public class NBTSizeTracker {
 
-    public static final NBTSizeTracker UNLIMITED = new NBTSizeTracker(0L) {
-        public void accumulateSize(long size) {}
-    };
+    /** The nesting depth no tracker can go beyond. */
+    static final int MAX_DEPTH = 512;
 
+    public static final NBTSizeTracker UNLIMITED = new NBTSizeTracker();
+
+    private final boolean limited;
+    private final long maxBits;
     private final long maxByteSize;
+    private final long maxTags;
+    private final int maxDepth;
+
+    private long bits;
+    private long tags;
 
-    private long byteSize;
+    private NBTSizeTracker() {
+        this.limited = false;
+        this.maxBits = Long.MAX_VALUE;
+        this.maxByteSize = Long.MAX_VALUE;
+        this.maxTags = Long.MAX_VALUE;
+        this.maxDepth = MAX_DEPTH;
+    }
 
     public NBTSizeTracker(long maxByteSize) {
+        this(maxByteSize, Long.MAX_VALUE, MAX_DEPTH);
+    }
+
+    /**
+     * @param maxTags  the most tags that may be read, counting list elements and the root
+     * @param maxDepth the deepest nesting allowed, capped at 512
+     */
+    public NBTSizeTracker(long maxByteSize, long maxTags, int maxDepth) {
+        this.limited = true;
+        this.maxBits = maxByteSize > Long.MAX_VALUE >>> 3 ? Long.MAX_VALUE : maxByteSize << 3;
         this.maxByteSize = maxByteSize;
+        this.maxTags = maxTags;
+        this.maxDepth = Math.min(maxDepth, MAX_DEPTH);
     }
 
     public void accumulateSize(long size) {
-        this.byteSize += size / 8L;
+        if (this.limited) {
+            this.bits += size;
 
-        if (this.byteSize > this.maxByteSize) {
+            if (this.bits > this.maxBits) {
+                throw this.tooBig();
+            }
+        }
+    }
+
+    /**
+     * Accounts for a whole batch of tags at once, so containers check their budget once instead of once per value.
+     */
+    public void accumulate(long size, int tagCount) {
+        if (this.limited) {
+            this.bits += size;
+            this.tags += tagCount;
+
+            if (this.bits > this.maxBits) {
+                throw this.tooBig();
+            } else if (this.tags > this.maxTags) {
+                throw new RuntimeException("Tried to read NBT tag with too many tags; tried to read: "
+                    + this.tags
+                    + " tags where max allowed: "
+                    + this.maxTags);
+            }
+        }
+    }
+
+    /**
+     * Fails if decoding the given number of encoded bytes would go over budget. Reading a tree accounts for at least as
+     * many bytes as it is encoded in, so a payload that is too big can be refused before it is parsed.
+     */
+    void checkEncodedSize(long bytes) {
+        if (this.limited && (this.bits >>> 3) + bytes > this.maxByteSize) {
             throw new RuntimeException("Tried to read NBT tag that was too big; tried to allocate: "
-                + this.byteSize
+                + ((this.bits >>> 3) + bytes)
                 + "bytes where max allowed: "
                 + this.maxByteSize);
         }
     }
 
+    /**
+     * Fails if a container at the given depth would nest too deep.
+     */
+    public void checkDepth(int depth) {
+        if (depth > this.maxDepth) {
+            throw new RuntimeException("Tried to read NBT tag with too high complexity, depth > " + this.maxDepth);
+        }
+    }
+
+    /**
+     * The bytes accounted for so far, always 0 for {@link #UNLIMITED}.
+     */
+    public long getSize() {
+        return this.bits >>> 3;
+    }
+
+    /**
+     * The tags accounted for so far, always 0 for {@link #UNLIMITED}.
+     */
+    public long getTagCount() {
+        return this.tags;
+    }
+
+    private RuntimeException tooBig() {
+        return new RuntimeException("Tried to read NBT tag that was too big; tried to allocate: "
+            + (this.bits >>> 3)
+            + "bytes where max allowed: "
+            + this.maxByteSize);
+    }
+
     /*
      * UTF8 is not a simple encoding system, each character can be either
      * 1, 2, or 3 bytes. Depending on where it's numerical value falls.
@@ -40,15 +134,6 @@ public class NBTSizeTracker {
         tracker.accumulateSize(16); //Header length
         if (data == null) return;
 
-        int len = data.length();
-        int utflen = 0;
-
-        for (int i = 0; i < len; i++) {
-            int c = data.charAt(i);
-            if ((c >= 0x0001) && (c <= 0x007F)) utflen += 1;
-            else if (c > 0x07FF) utflen += 3;
-            else utflen += 2;
-        }
-        tracker.accumulateSize(8L * utflen);
+        tracker.accumulateSize(8L * NBTStringCodec.encodedLength(data));
     }
 }
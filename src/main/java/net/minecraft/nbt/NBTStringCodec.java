@@ -0,0 +1,179 @@
+package net.minecraft.nbt;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The modified UTF-8 encoding used for every key and string in NBT, as defined by {@link java.io.DataInput}.
+ * <p>
+ * Unlike {@link DataInput#readUTF()} and {@link DataOutput#writeUTF(String)}, strings are decoded and encoded through
+ * a single byte array per call, and the size tracker is charged from the length header instead of re-scanning the
+ * decoded string.
+ */
+final class NBTStringCodec {
+
+    private NBTStringCodec() {}
+
+    /**
+     * Reads a length-prefixed string, charging the tracker for the 2 byte header and the encoded bytes.
+     */
+    static String read(DataInput input, NBTSizeTracker sizeTracker) throws IOException {
+        int length = input.readUnsignedShort();
+        sizeTracker.accumulateSize(16 + 8L * length);
+        return read(input, length);
+    }
+
+    /**
+     * Reads the {@code length} bytes of a string whose header has already been read.
+     */
+    static String read(DataInput input, int length) throws IOException {
+        if (input instanceof NBTByteBufferInput bufferInput) {
+            return bufferInput.readUTF(length);
+        }
+
+        byte[] bytes = new byte[length];
+        input.readFully(bytes, 0, length);
+        return decode(bytes, 0, length);
+    }
+
+    /**
+     * Writes a length-prefixed string in a single call to the output, the same bytes as
+     * {@link DataOutput#writeUTF(String)}.
+     */
+    static void write(DataOutput output, String s) throws IOException {
+        if (output instanceof NBTByteBufferOutput) {
+            output.writeUTF(s);
+            return;
+        }
+
+        int length = checkedLength(s);
+        byte[] bytes = new byte[2 + length];
+        bytes[0] = (byte) (length >>> 8);
+        bytes[1] = (byte) length;
+        encode(s, bytes, 2);
+        output.write(bytes, 0, 2 + length);
+    }
+
+    /**
+     * The number of bytes the string takes in modified UTF-8, without the length header.
+     */
+    static long encodedLength(String s) {
+        int len = s.length();
+        long length = len;
+
+        for (int i = 0; i < len; ++i) {
+            char c = s.charAt(i);
+            if (c >= 0x80 || c == 0) {
+                length += c >= 0x800 ? 2 : 1;
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * The encoded length, failing like {@link DataOutput#writeUTF(String)} if it does not fit the 2 byte header.
+     */
+    static int checkedLength(String s) throws UTFDataFormatException {
+        long length = encodedLength(s);
+
+        if (length > 65535) {
+            throw new UTFDataFormatException("encoded string too long: " + length + " bytes");
+        }
+
+        return (int) length;
+    }
+
+    /**
+     * Encodes the string into the array starting at {@code offset}, returning the index after the last byte written.
+     * The array must have room for {@link #encodedLength(String)} bytes.
+     */
+    static int encode(String s, byte[] bytes, int offset) {
+        int len = s.length();
+        int i = 0;
+
+        for (char c; i < len && (c = s.charAt(i)) < 0x80 && c != 0; ++i) {
+            bytes[offset++] = (byte) c;
+        }
+
+        for (; i < len; ++i) {
+            char c = s.charAt(i);
+            if (c < 0x80 && c != 0) {
+                bytes[offset++] = (byte) c;
+            } else if (c >= 0x800) {
+                bytes[offset++] = (byte) (0xE0 | ((c >> 12) & 0x0F));
+                bytes[offset++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[offset++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                bytes[offset++] = (byte) (0xC0 | ((c >> 6) & 0x1F));
+                bytes[offset++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        return offset;
+    }
+
+    /**
+     * Decodes {@code length} bytes of modified UTF-8, failing the same way {@link java.io.DataInputStream#readUTF}
+     * does on malformed input. Pure ASCII is copied straight into a Latin-1 string without a char[] in between.
+     */
+    static String decode(byte[] bytes, int offset, int length) throws UTFDataFormatException {
+        int end = offset + length;
+        int count = offset;
+
+        while (count < end && bytes[count] >= 0) {
+            ++count;
+        }
+
+        if (count == end) {
+            return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        }
+
+        char[] chars = new char[length];
+        int n = 0;
+
+        for (int i = offset; i < count; ++i) {
+            chars[n++] = (char) bytes[i];
+        }
+
+        while (count < end) {
+            int c = bytes[count] & 0xFF;
+
+            switch (c >> 4) {
+                case 0, 1, 2, 3, 4, 5, 6, 7 -> {
+                    ++count;
+                    chars[n++] = (char) c;
+                }
+                case 12, 13 -> {
+                    count += 2;
+                    if (count > end) {
+                        throw new UTFDataFormatException("malformed input: partial character at end");
+                    }
+                    int c2 = bytes[count - 1];
+                    if ((c2 & 0xC0) != 0x80) {
+                        throw new UTFDataFormatException("malformed input around byte " + (count - offset));
+                    }
+                    chars[n++] = (char) (((c & 0x1F) << 6) | (c2 & 0x3F));
+                }
+                case 14 -> {
+                    count += 3;
+                    if (count > end) {
+                        throw new UTFDataFormatException("malformed input: partial character at end");
+                    }
+                    int c2 = bytes[count - 2];
+                    int c3 = bytes[count - 1];
+                    if ((c2 & 0xC0) != 0x80 || (c3 & 0xC0) != 0x80) {
+                        throw new UTFDataFormatException("malformed input around byte " + (count - 1 - offset));
+                    }
+                    chars[n++] = (char) (((c & 0x0F) << 12) | ((c2 & 0x3F) << 6) | (c3 & 0x3F));
+                }
+                default -> throw new UTFDataFormatException("malformed input around byte " + (count - offset));
+            }
+        }
+
+        return new String(chars, 0, n);
+    }
+}
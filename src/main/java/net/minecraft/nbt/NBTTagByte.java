@@ -25,7 +25,6 @@ public class NBTTagByte extends NBTBase.NBTPrimitive {
 
     @Override
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
-        sizeTracker.accumulateSize(8L);
         this.data = input.readByte();
     }
 
@@ -5,15 +5,34 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.util.Arrays;
 
-public class NBTTagByteArray extends NBTBase {
+public class NBTTagByteArray extends NBTBase.NBTMutable {
 
     /** The byte array stored in the tag. */
     private byte[] byteArray;
+    /** Whether the array is shared with a copy made by {@link #share()}, so it is copied before being handed out. */
+    private boolean shared;
+    /**
+     * The hash of the array when the hash code was last computed, to notice changes made through a handed out array.
+     */
+    private int arrayHash;
 
     NBTTagByteArray() {}
 
+    /**
+     * Creates a tag holding the array itself, which the caller may still change, so its hash code is checked against
+     * the array before it is used.
+     */
     public NBTTagByteArray(byte[] byteArray) {
         this.byteArray = byteArray;
+        this.expose();
+    }
+
+    /**
+     * Creates a tag holding an array that nothing else changes, to be copied before being handed out if shared.
+     */
+    NBTTagByteArray(byte[] byteArray, boolean shared) {
+        this.byteArray = byteArray;
+        this.shared = shared;
     }
 
     /**
@@ -27,9 +46,8 @@ public class NBTTagByteArray extends NBTBase {
 
     @Override
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
-        sizeTracker.accumulateSize(32); //Forge: Count the length as well
         int j = input.readInt();
-        sizeTracker.accumulateSize(8L * j);
+        sizeTracker.accumulateSize(32 + 8L * j); //Forge: Count the length as well
         this.byteArray = new byte[j];
         input.readFully(this.byteArray);
     }
@@ -54,18 +72,44 @@ public class NBTTagByteArray extends NBTBase {
     public NBTBase copy() {
         byte[] copiedArray = new byte[this.byteArray.length];
         System.arraycopy(this.byteArray, 0, copiedArray, 0, this.byteArray.length);
-        return new NBTTagByteArray(copiedArray);
+        return new NBTTagByteArray(copiedArray, false);
     }
 
     public boolean equals(Object other) {
-        return super.equals(other) && Arrays.equals(this.byteArray, ((NBTTagByteArray) other).byteArray);
+        return super.equals(other) && !this.hashDiffers((NBTTagByteArray) other)
+            && Arrays.equals(this.byteArray, ((NBTTagByteArray) other).byteArray);
     }
 
-    public int hashCode() {
-        return super.hashCode() ^ Arrays.hashCode(this.byteArray);
+    @Override
+    int computeHash() {
+        int h = Arrays.hashCode(this.byteArray);
+        this.arrayHash = h;
+        return this.getType() ^ h;
+    }
+
+    @Override
+    void checkArrays() {
+        if (Arrays.hashCode(this.byteArray) != this.arrayHash) {
+            this.changed();
+        }
+    }
+
+    @Override
+    NBTBase share() {
+        NBTTagByteArray copy = new NBTTagByteArray(this.byteArray, true);
+        this.shared = true;
+        this.shareHash(copy);
+        copy.arrayHash = this.arrayHash;
+        return copy;
     }
 
     public byte[] getByteArray() {
+        if (this.shared) {
+            this.byteArray = this.byteArray.clone();
+            this.shared = false;
+        }
+
+        this.expose(); // the caller may change the array
         return this.byteArray;
     }
 }
@@ -6,49 +6,119 @@ import org.slf4j.LoggerFactory;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.AbstractSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
-public class NBTTagCompound extends NBTBase {
+public class NBTTagCompound extends NBTBase.NBTMutable {
 
     private static final Logger logger = LoggerFactory.getLogger(NBTTagCompound.class);
     /** The key-value pairs for the tag. Each key is a UTF string, each value is a tag. */
-    private final Map<String, NBTBase> tagMap = new HashMap<>();
+    private NBTTagMap tagMap;
+    /**
+     * Whether the tag map, and the tags in it, may be shared with a copy made by {@link #copyOnWrite()}, so the map has
+     * to be copied before it is changed or hands out a tag that can be changed.
+     */
+    private boolean shared;
+
+    public NBTTagCompound() {
+        this(new NBTTagMap());
+    }
+
+    private NBTTagCompound(NBTTagMap tagMap) {
+        this.tagMap = tagMap;
+    }
 
     /**
      * Write the actual data contents of the tag, implemented in NBT extension classes
      */
     @Override
     void write(DataOutput output) throws IOException {
-        for (String s : this.tagMap.keySet()) {
-            NBTBase nbtbase = this.tagMap.get(s);
-            write(s, nbtbase, output);
-        }
-
-        output.writeByte(0);
+        NBTTreeCodec.write(this, output);
     }
 
     @Override
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
-        if (depth > 512) {
-            throw new RuntimeException("Tried to read NBT tag with too high complexity, depth > 512");
-        } else {
-            this.tagMap.clear();
-            byte tagType;
-
-            while ((tagType = readByte(input, sizeTracker)) != 0) {
-                String tagName = readUtf(input, sizeTracker);
-                NBTSizeTracker.readUTF(sizeTracker, tagName); // Forge: Correctly read String length including header.
-                NBTBase tag = read(tagType, tagName, input, depth + 1, sizeTracker);
-                this.tagMap.put(tagName, tag);
-            }
-        }
+        this.tagMap.clear();
+        this.changed();
+        NBTTreeCodec.read(this, input, depth, sizeTracker);
+    }
+
+    /**
+     * The entries in the order they are written, see {@link NBTTreeCodec}.
+     */
+    Iterator<Map.Entry<String, NBTBase>> entryIterator() {
+        return this.tagMap.entrySet().iterator();
+    }
+
+    /**
+     * The number of tags in the compound.
+     */
+    int size() {
+        return this.tagMap.size();
     }
 
     public Set<String> keySet() {
-        return this.tagMap.keySet();
+        // a view of whatever map the compound holds at the time, which only unshares it to remove
+        return new AbstractSet<>() {
+
+            @Override
+            public Iterator<String> iterator() {
+                NBTTagMap map = NBTTagCompound.this.tagMap;
+                Iterator<Map.Entry<String, NBTBase>> entries = map.entrySet().iterator();
+                return new Iterator<>() {
+
+                    private Map.Entry<String, NBTBase> last;
+
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public String next() {
+                        this.last = entries.next();
+                        return this.last.getKey();
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (NBTTagCompound.this.tagMap != map || NBTTagCompound.this.shared) {
+                            // the map iterated over is shared with a copy now, the compound removes from its own
+                            if (this.last == null) {
+                                throw new IllegalStateException();
+                            }
+                            NBTTagCompound.this.removeTag(this.last.getKey());
+                            this.last = null;
+                            return;
+                        }
+
+                        entries.remove();
+                        NBTTagCompound.this.detach(this.last.getValue());
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return NBTTagCompound.this.tagMap.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return NBTTagCompound.this.tagMap.containsKey(o);
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                if (o instanceof String key && NBTTagCompound.this.tagMap.containsKey(key)) {
+                    NBTTagCompound.this.removeTag(key);
+                    return true;
+                }
+                return false;
+            }
+        };
     }
 
     /**
@@ -63,70 +133,70 @@ public class NBTTagCompound extends NBTBase {
      * Stores the given tag into the map with the given string key. This is mostly used to store tag lists.
      */
     public void setTag(String key, NBTBase value) {
-        this.tagMap.put(key, value);
+        this.put(key, value);
     }
 
     /**
      * Stores a new NBTTagByte with the given byte value into the map with the given string key.
      */
     public void setByte(String key, byte value) {
-        this.tagMap.put(key, new NBTTagByte(value));
+        this.put(key, new NBTTagByte(value));
     }
 
     /**
      * Stores a new NBTTagShort with the given short value into the map with the given string key.
      */
     public void setShort(String key, short value) {
-        this.tagMap.put(key, new NBTTagShort(value));
+        this.put(key, new NBTTagShort(value));
     }
 
     /**
      * Stores a new NBTTagInt with the given integer value into the map with the given string key.
      */
     public void setInteger(String key, int value) {
-        this.tagMap.put(key, new NBTTagInt(value));
+        this.put(key, new NBTTagInt(value));
     }
 
     /**
      * Stores a new NBTTagLong with the given long value into the map with the given string key.
      */
     public void setLong(String key, long value) {
-        this.tagMap.put(key, new NBTTagLong(value));
+        this.put(key, new NBTTagLong(value));
     }
 
     /**
      * Stores a new NBTTagFloat with the given float value into the map with the given string key.
      */
     public void setFloat(String key, float value) {
-        this.tagMap.put(key, new NBTTagFloat(value));
+        this.put(key, new NBTTagFloat(value));
     }
 
     /**
      * Stores a new NBTTagDouble with the given double value into the map with the given string key.
      */
     public void setDouble(String key, double value) {
-        this.tagMap.put(key, new NBTTagDouble(value));
+        this.put(key, new NBTTagDouble(value));
     }
 
     /**
      * Stores a new NBTTagString with the given string value into the map with the given string key.
      */
     public void setString(String key, String value) {
-        this.tagMap.put(key, new NBTTagString(value));
+        this.put(key, new NBTTagString(value));
     }
 
     /**
      * Stores a new NBTTagByteArray with the given array as data into the map with the given string key.
      */
     public void setByteArray(String key, byte[] value) {
-        this.tagMap.put(key, new NBTTagByteArray(value));
+        this.put(key, new NBTTagByteArray(value));
     }
 
     /**
      * Stores a new NBTTagIntArray with the given array as data into the map with the given string key.
      */
     public void setIntArray(String key, int[] value) {
-        this.tagMap.put(key, new NBTTagIntArray(value));
+        this.put(key, new NBTTagIntArray(value));
     }
 
     /**
@@ -140,7 +210,20 @@ public class NBTTagCompound extends NBTBase {
      * gets a generic tag with the specified name
      */
     public NBTBase getTag(String key) {
-        return this.tagMap.get(key);
+        NBTBase nbtbase = this.tagMap.get(key);
+
+        if (this.shared && nbtbase != null && (nbtbase.isMutable() || nbtbase instanceof NBTTagLazy)) {
+            this.unshare();
+            nbtbase = this.tagMap.get(key);
+        }
+
+        if (nbtbase instanceof NBTTagLazy lazy) {
+            nbtbase = lazy.take();
+            this.tagMap.put(key, nbtbase);
+            this.attach(nbtbase);
+        }
+
+        return nbtbase;
     }
 
     public byte getTagType(String key) {
@@ -233,7 +316,7 @@ public class NBTTagCompound extends NBTBase {
         try {
             return !this.tagMap.containsKey(key)
                 ? new byte[0]
-                : ((NBTTagByteArray) this.tagMap.get(key)).getByteArray();
+                : ((NBTTagByteArray) this.getTag(key)).getByteArray();
         } catch (ClassCastException classcastexception) {
             throw new RuntimeException(classcastexception);
         }
@@ -244,7 +327,7 @@ public class NBTTagCompound extends NBTBase {
      */
     public String getString(String key) {
         try {
-            return !this.tagMap.containsKey(key) ? "" : ((NBTBase) this.tagMap.get(key)).toStringValue();
+            return !this.tagMap.containsKey(key) ? "" : this.getTag(key).toStringValue();
         } catch (ClassCastException classcastexception) {
             return "";
         }
@@ -258,7 +341,7 @@ public class NBTTagCompound extends NBTBase {
             if (this.getTagType(key) != 9) {
                 return new NBTTagList();
             } else {
-                NBTTagList nbttaglist = (NBTTagList) this.tagMap.get(key);
+                NBTTagList nbttaglist = (NBTTagList) this.getTag(key);
                 return nbttaglist.tagCount() > 0 && nbttaglist.getTagType() != type ? new NBTTagList() : nbttaglist;
             }
         } catch (ClassCastException classcastexception) {
@@ -272,7 +355,7 @@ public class NBTTagCompound extends NBTBase {
      */
     public NBTTagCompound getCompoundTag(String key) {
         try {
-            return !this.tagMap.containsKey(key) ? new NBTTagCompound() : (NBTTagCompound) this.tagMap.get(key);
+            return !this.tagMap.containsKey(key) ? new NBTTagCompound() : (NBTTagCompound) this.getTag(key);
         } catch (ClassCastException classcastexception) {
             throw new RuntimeException(classcastexception);
         }
@@ -283,7 +366,7 @@ public class NBTTagCompound extends NBTBase {
      */
     public int[] getIntArray(String key) {
         try {
-            return !this.tagMap.containsKey(key) ? new int[0] : ((NBTTagIntArray) this.tagMap.get(key)).getIntArray();
+            return !this.tagMap.containsKey(key) ? new int[0] : ((NBTTagIntArray) this.getTag(key)).getIntArray();
         } catch (ClassCastException classcastexception) {
             throw new RuntimeException(classcastexception);
         }
@@ -301,7 +384,52 @@ public class NBTTagCompound extends NBTBase {
      * Remove the specified tag.
      */
     public void removeTag(String key) {
-        this.tagMap.remove(key);
+        this.unshare();
+        NBTBase removed = this.tagMap.remove(key);
+        if (removed != null) {
+            this.detach(removed);
+        }
+    }
+
+    private void put(String key, NBTBase value) {
+        this.unshare();
+        NBTBase replaced = this.tagMap.put(key, value);
+        if (replaced != null) {
+            this.detach(replaced);
+        }
+        this.attach(value);
+    }
+
+    /**
+     * Creates a copy in constant time that shares all its tags with this compound. Whichever of the two is changed
+     * first, or hands out a nested tag or array that could be changed, copies its own map and shares the level below
+     * in turn, so only the path actually changed is ever copied.
+     * <p>
+     * Tags taken out of this compound before the call are not covered: change them only after getting them again.
+     */
+    public NBTTagCompound copyOnWrite() {
+        return (NBTTagCompound) this.share();
+    }
+
+    @Override
+    NBTBase share() {
+        NBTTagCompound copy = new NBTTagCompound(this.tagMap);
+        copy.shared = this.shared = true;
+        this.shareHash(copy);
+        return copy;
+    }
+
+    private void unshare() {
+        if (this.shared) {
+            NBTTagMap map = new NBTTagMap(this.tagMap);
+            map.replaceAll((key, value) -> {
+                NBTBase copy = value.share();
+                this.attach(copy);
+                return copy;
+            });
+            this.tagMap = map;
+            this.shared = false;
+        }
     }
 
     @Override
@@ -340,39 +468,38 @@ public class NBTTagCompound extends NBTBase {
     }
 
     public boolean equals(Object other) {
+        if (other instanceof NBTTagLazy lazy) {
+            other = lazy.resolve();
+        }
+
         if (super.equals(other)) {
             NBTTagCompound nbttagcompound = (NBTTagCompound) other;
-            return this.tagMap.entrySet().equals(nbttagcompound.tagMap.entrySet());
+            if (this.hashDiffers(nbttagcompound) || this.tagMap.size() != nbttagcompound.tagMap.size()) {
+                return false;
+            }
+            return this.tagMap.equals(nbttagcompound.tagMap);
         } else {
             return false;
         }
     }
 
-    public int hashCode() {
-        return super.hashCode() ^ this.tagMap.hashCode();
+    @Override
+    int computeHash() {
+        return this.getType() ^ this.tagMap.hashCode();
     }
 
-    private static void write(String name, NBTBase data, DataOutput output) throws IOException {
-        output.writeByte(data.getType());
-
-        if (data.getType() != 0) {
-            output.writeUTF(name);
-            data.write(output);
+    @Override
+    void checkArrays() {
+        for (NBTBase tag : this.tagMap.values()) {
+            checkArrays(tag);
         }
     }
 
-    private static byte readByte(DataInput input, NBTSizeTracker sizeTracker) throws IOException {
-        sizeTracker.accumulateSize(8);
-        return input.readByte();
-    }
-
-    private static String readUtf(DataInput input, NBTSizeTracker sizeTracker) throws IOException {
-        return input.readUTF();
-    }
-
     static NBTBase read(byte type, String key, DataInput input, int depth, NBTSizeTracker sizeTracker) {
-        sizeTracker.accumulateSize(32); //Forge: 4 extra bytes for the object allocation.
-        NBTBase nbtbase = NBTBase.Type.byId(type).newInstance();
+        NBTBase.Type tagType = NBTBase.Type.byId(type);
+        //Forge: 4 extra bytes for the object allocation, counted together with a primitive's payload.
+        sizeTracker.accumulate(32 + 8L * Math.max(tagType.fixedSize(), 0), 1);
+        NBTBase nbtbase = tagType.newInstance();
 
         try {
             nbtbase.read(input, depth, sizeTracker);
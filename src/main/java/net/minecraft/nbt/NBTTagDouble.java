@@ -27,7 +27,6 @@ public class NBTTagDouble extends NBTBase.NBTPrimitive {
 
     @Override
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
-        sizeTracker.accumulateSize(64L);
         this.data = input.readDouble();
     }
 
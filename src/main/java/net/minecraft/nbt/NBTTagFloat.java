@@ -27,7 +27,6 @@ public class NBTTagFloat extends NBTBase.NBTPrimitive {
 
     @Override
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
-        sizeTracker.accumulateSize(32L);
         this.data = input.readFloat();
     }
 
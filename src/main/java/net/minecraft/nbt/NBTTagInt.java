@@ -25,7 +25,6 @@ public class NBTTagInt extends NBTBase.NBTPrimitive {
 
     @Override
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
-        sizeTracker.accumulateSize(32L);
         this.data = input.readInt();
     }
 
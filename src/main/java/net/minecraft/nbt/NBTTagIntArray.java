@@ -5,15 +5,34 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.util.Arrays;
 
-public class NBTTagIntArray extends NBTBase {
+public class NBTTagIntArray extends NBTBase.NBTMutable {
 
     /** The array of saved integers */
     private int[] intArray;
+    /** Whether the array is shared with a copy made by {@link #share()}, so it is copied before being handed out. */
+    private boolean shared;
+    /**
+     * The hash of the array when the hash code was last computed, to notice changes made through a handed out array.
+     */
+    private int arrayHash;
 
     NBTTagIntArray() {}
 
+    /**
+     * Creates a tag holding the array itself, which the caller may still change, so its hash code is checked against
+     * the array before it is used.
+     */
     public NBTTagIntArray(int[] intArray) {
         this.intArray = intArray;
+        this.expose();
+    }
+
+    /**
+     * Creates a tag holding an array that nothing else changes, to be copied before being handed out if shared.
+     */
+    NBTTagIntArray(int[] intArray, boolean shared) {
+        this.intArray = intArray;
+        this.shared = shared;
     }
 
     /**
@@ -23,21 +42,16 @@ public class NBTTagIntArray extends NBTBase {
     void write(DataOutput output) throws IOException {
         output.writeInt(this.intArray.length);
 
-        for (int j : this.intArray) {
-            output.writeInt(j);
-        }
+        NBTBulkIO.writeInts(output, this.intArray, this.intArray.length);
     }
 
     @Override
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
-        sizeTracker.accumulateSize(32); //Forge: Count the length as well
         int j = input.readInt();
-        sizeTracker.accumulateSize(32L * j);
+        sizeTracker.accumulateSize(32 + 32L * j); //Forge: Count the length as well
         this.intArray = new int[j];
 
-        for (int k = 0; k < j; ++k) {
-            this.intArray[k] = input.readInt();
-        }
+        NBTBulkIO.readInts(input, this.intArray, this.intArray.length);
     }
 
     /**
@@ -67,18 +81,44 @@ public class NBTTagIntArray extends NBTBase {
     public NBTBase copy() {
         int[] copiedArray = new int[this.intArray.length];
         System.arraycopy(this.intArray, 0, copiedArray, 0, this.intArray.length);
-        return new NBTTagIntArray(copiedArray);
+        return new NBTTagIntArray(copiedArray, false);
     }
 
     public boolean equals(Object other) {
-        return super.equals(other) && Arrays.equals(this.intArray, ((NBTTagIntArray) other).intArray);
+        return super.equals(other) && !this.hashDiffers((NBTTagIntArray) other)
+            && Arrays.equals(this.intArray, ((NBTTagIntArray) other).intArray);
     }
 
-    public int hashCode() {
-        return super.hashCode() ^ Arrays.hashCode(this.intArray);
+    @Override
+    int computeHash() {
+        int h = Arrays.hashCode(this.intArray);
+        this.arrayHash = h;
+        return this.getType() ^ h;
+    }
+
+    @Override
+    void checkArrays() {
+        if (Arrays.hashCode(this.intArray) != this.arrayHash) {
+            this.changed();
+        }
+    }
+
+    @Override
+    NBTBase share() {
+        NBTTagIntArray copy = new NBTTagIntArray(this.intArray, true);
+        this.shared = true;
+        this.shareHash(copy);
+        copy.arrayHash = this.arrayHash;
+        return copy;
     }
 
     public int[] getIntArray() {
+        if (this.shared) {
+            this.intArray = this.intArray.clone();
+            this.shared = false;
+        }
+
+        this.expose(); // the caller may change the array
         return this.intArray;
     }
 }
@@ -0,0 +1,128 @@
+package net.minecraft.nbt;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A compound or list that has been read as a raw slice of its source buffer and is decoded on first access.
+ * <p>
+ * Only ever stored inside an {@link NBTTagCompound} read through {@link CompressedStreamTools#readLazy}, which swaps it
+ * for a copy of the decoded tag when the value is requested. Until then it is written back verbatim. The payload is
+ * decoded at most once, against the size tracker of the read that produced it, and the decoded tag is kept for
+ * comparing, hashing and printing, which leave the containing compound as it is.
+ */
+final class NBTTagLazy extends NBTBase {
+
+    private final byte type;
+    /** The encoded payload, shared with the source buffer. */
+    private ByteBuffer payload;
+    private int depth;
+    /** The tracker of the read the payload comes from, charged when it is decoded. */
+    private NBTSizeTracker sizeTracker;
+    /** The decoded payload, never handed out to be changed, or null until it is first needed. */
+    private volatile NBTBase resolved;
+
+    NBTTagLazy(byte type) {
+        this.type = type;
+    }
+
+    /**
+     * Skips over the payload of a tag of the given type, keeping the skipped bytes as a lazy tag. The tracker is
+     * charged for its contents only once they are decoded, just as much as reading them at once would have been.
+     */
+    static NBTTagLazy read(byte type, NBTByteBufferInput input, int depth, NBTSizeTracker sizeTracker)
+        throws IOException {
+        int start = input.position();
+        NBTBase.Type.byId(type).skip(input, depth, sizeTracker);
+        NBTTagLazy lazy = new NBTTagLazy(type);
+        lazy.payload = input.slice(start, input.position() - start);
+        lazy.depth = depth;
+        lazy.sizeTracker = sizeTracker;
+        return lazy;
+    }
+
+    /**
+     * The decoded payload, which must not be changed. Compounds inside it are read lazily again, so only the path
+     * actually walked is decoded.
+     */
+    NBTBase resolve() {
+        NBTBase nbtbase = this.resolved;
+
+        if (nbtbase == null) {
+            nbtbase = NBTBase.Type.byId(this.type).newInstance();
+
+            try {
+                nbtbase.read(new NBTByteBufferInput(this.payload, true), this.depth, this.sizeTracker);
+            } catch (IOException ioexception) {
+                throw new RuntimeException(ioexception);
+            }
+            this.resolved = nbtbase;
+        }
+
+        return nbtbase;
+    }
+
+    /**
+     * A copy of the decoded payload for a compound to store in place of this tag, sharing its contents until changed.
+     */
+    NBTBase take() {
+        return this.resolve().share();
+    }
+
+    @Override
+    void write(DataOutput output) throws IOException {
+        if (output instanceof NBTByteBufferOutput bufferOutput) {
+            bufferOutput.write(this.payload);
+        } else if (this.payload.hasArray()) {
+            output.write(this.payload.array(), this.payload.arrayOffset() + this.payload.position(), this.payload.remaining());
+        } else {
+            byte[] bytes = new byte[this.payload.remaining()];
+            this.payload.duplicate().get(bytes);
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Reads the payload from an input that cannot be sliced, so it is decoded at once and its encoding kept.
+     */
+    @Override
+    void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
+        NBTBase nbtbase = NBTBase.Type.byId(this.type).newInstance();
+        nbtbase.read(input, depth, sizeTracker);
+
+        NBTByteBufferOutput output = new NBTByteBufferOutput(256);
+        nbtbase.write(output);
+        this.payload = output.buffer().flip();
+        this.depth = depth;
+        this.sizeTracker = sizeTracker;
+        this.resolved = nbtbase;
+    }
+
+    @Override
+    public byte getType() {
+        return this.type;
+    }
+
+    @Override
+    public String toString() {
+        return this.resolve().toString();
+    }
+
+    /**
+     * The encoded bytes never change, so the lazy tag itself can be shared between copies.
+     */
+    @Override
+    public NBTBase copy() {
+        return this;
+    }
+
+    public boolean equals(Object other) {
+        return this == other || this.resolve().equals(other instanceof NBTTagLazy lazy ? lazy.resolve() : other);
+    }
+
+    public int hashCode() {
+        return this.resolve().hashCode();
+    }
+}
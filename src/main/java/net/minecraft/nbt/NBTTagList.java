@@ -6,54 +6,270 @@ import org.jetbrains.annotations.Nullable;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.lang.reflect.Array;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
-public class NBTTagList extends NBTBase {
+public class NBTTagList extends NBTBase.NBTMutable {
 
-    /** The array list containing the tags encapsulated in this list. */
+    /** The most values of a primitive list being read allocated before they are read. */
+    private static final int MAX_PREALLOCATED = 1 << 12;
+
+    /** The array list containing the tags encapsulated in this list, or null while they are stored as primitives. */
     private List<NBTBase> tagList = new ArrayList<>();
+    /**
+     * The unboxed values of a list of primitives, a byte[], short[], int[], long[], float[] or double[] matching the
+     * tag type, or null while the tags are kept in the tag list.
+     */
+    private Object primitives;
+    /** The number of values used at the start of the primitive array. */
+    private int primitiveCount;
     /** The type byte for the tags in the list - they must all be of the same type. */
     private byte tagType = 0;
+    /**
+     * Whether the storage, and the tags in it, may be shared with a copy made by {@link #copyOnWrite()}, so it has to
+     * be copied before it is changed or hands out a tag that can be changed.
+     */
+    private boolean shared;
 
     /**
      * Write the actual data contents of the tag, implemented in NBT extension classes
      */
     @Override
     void write(DataOutput output) throws IOException {
-        if (!this.tagList.isEmpty()) {
-            this.tagType = this.tagList.get(0).getType();
-        } else {
+        NBTTreeCodec.write(this, output);
+    }
+
+    /**
+     * Writes the element type and count, and the values of a primitive list.
+     *
+     * @return whether the tags still have to be written, see {@link #element}
+     */
+    boolean writeHeader(DataOutput output) throws IOException {
+        if (this.size() == 0) {
             this.tagType = 0;
+        } else if (this.primitives == null) {
+            this.tagType = this.tagList.get(0).getType();
         }
 
         output.writeByte(this.tagType);
-        output.writeInt(this.tagList.size());
-
-        for (NBTBase nbtBase : this.tagList) {
-            nbtBase.write(output);
+        output.writeInt(this.size());
+
+        if (this.primitives != null) {
+            switch (this.tagType) {
+                case 1 -> output.write((byte[]) this.primitives, 0, this.primitiveCount);
+                case 2 -> NBTBulkIO.writeShorts(output, (short[]) this.primitives, this.primitiveCount);
+                case 3 -> NBTBulkIO.writeInts(output, (int[]) this.primitives, this.primitiveCount);
+                case 4 -> NBTBulkIO.writeLongs(output, (long[]) this.primitives, this.primitiveCount);
+                case 5 -> NBTBulkIO.writeFloats(output, (float[]) this.primitives, this.primitiveCount);
+                case 6 -> NBTBulkIO.writeDoubles(output, (double[]) this.primitives, this.primitiveCount);
+            }
+            return false;
         }
+
+        return !this.tagList.isEmpty();
+    }
+
+    /**
+     * The tag at the index of a list that is not stored as primitives, without boxing or bounds handling.
+     */
+    NBTBase element(int i) {
+        return this.tagList.get(i);
     }
 
     @Override
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
-        if (depth > 512) {
-            throw new RuntimeException("Tried to read NBT tag with too high complexity, depth > 512");
+        NBTTreeCodec.read(this, input, depth, sizeTracker);
+    }
+
+    /**
+     * Reads the element type and count, and the values of a primitive list.
+     *
+     * @return the number of tags still to be read and given to {@link #addRead}
+     */
+    int readHeader(DataInput input, NBTSizeTracker sizeTracker) throws IOException {
+        this.changed();
+        this.tagType = input.readByte();
+        int count = Math.max(input.readInt(), 0);
+
+        if (isPrimitive(this.tagType)) {
+            //Forge: The type, the length and 4 extra bytes for the object allocation of each element, counted once for
+            // the whole list before allocating it.
+            sizeTracker.accumulate(8 + 32 + (32L + primitiveBits(this.tagType)) * count, count);
+            this.tagList = null;
+            this.primitives = readPrimitives(input, this.tagType, count);
+            this.primitiveCount = count;
+            return 0;
+        }
+
+        //Forge: The type, the length and 4 extra bytes for the object allocation of each element.
+        sizeTracker.accumulate(8 + 32 + 32L * count, count);
+        this.primitives = null;
+        this.primitiveCount = 0;
+        this.tagList = new ArrayList<>();
+        return count;
+    }
+
+    /**
+     * Reads the values of a primitive list. The count comes from the input, so only {@link #MAX_PREALLOCATED} values
+     * are allocated up front, and the array grows as more of them actually arrive.
+     */
+    private static Object readPrimitives(DataInput input, byte type, int count) throws IOException {
+        int capacity = Math.min(count, MAX_PREALLOCATED);
+        Object values = newPrimitives(type, capacity);
+        readPrimitives(input, type, values, capacity);
+
+        if (count > capacity) {
+            Object chunk = newPrimitives(type, MAX_PREALLOCATED);
+
+            for (int read = capacity; read < count; ) {
+                int length = Math.min(count - read, MAX_PREALLOCATED);
+                readPrimitives(input, type, chunk, length);
+
+                if (read + length > capacity) {
+                    capacity = (int) Math.min(count, 2L * capacity);
+                    Object grown = newPrimitives(type, capacity);
+                    System.arraycopy(values, 0, grown, 0, read);
+                    values = grown;
+                }
+                System.arraycopy(chunk, 0, values, read, length);
+                read += length;
+            }
+        }
+
+        return values;
+    }
+
+    private static void readPrimitives(DataInput input, byte type, Object values, int length) throws IOException {
+        switch (type) {
+            case 1 -> input.readFully((byte[]) values, 0, length);
+            case 2 -> NBTBulkIO.readShorts(input, (short[]) values, length);
+            case 3 -> NBTBulkIO.readInts(input, (int[]) values, length);
+            case 4 -> NBTBulkIO.readLongs(input, (long[]) values, length);
+            case 5 -> NBTBulkIO.readFloats(input, (float[]) values, length);
+            case 6 -> NBTBulkIO.readDoubles(input, (double[]) values, length);
+        }
+    }
+
+    /**
+     * Appends a tag being read, which is known to match the type read by {@link #readHeader}.
+     */
+    void addRead(NBTBase tag) {
+        this.tagList.add(tag);
+        this.attach(tag);
+    }
+
+    private static boolean isPrimitive(byte type) {
+        return type >= 1 && type <= 6;
+    }
+
+    private static int primitiveBits(byte type) {
+        return switch (type) {
+            case 1 -> 8;
+            case 2 -> 16;
+            case 3, 5 -> 32;
+            default -> 64;
+        };
+    }
+
+    private static Object newPrimitives(byte type, int length) {
+        return switch (type) {
+            case 1 -> new byte[length];
+            case 2 -> new short[length];
+            case 3 -> new int[length];
+            case 4 -> new long[length];
+            case 5 -> new float[length];
+            default -> new double[length];
+        };
+    }
+
+    private int size() {
+        return this.primitives != null ? this.primitiveCount : this.tagList.size();
+    }
+
+    /**
+     * Picks the storage for an empty list about to receive its first tag: unboxed arrays for primitives, the tag list
+     * for everything else.
+     */
+    private void initStorage(byte type) {
+        if (isPrimitive(type)) {
+            this.tagList = null;
+            this.primitives = newPrimitives(type, 4);
         } else {
-            sizeTracker.accumulateSize(8L);
-            this.tagType = input.readByte();
-            sizeTracker.accumulateSize(32); //Forge: Count the length as well
-            int j = input.readInt();
             this.tagList = new ArrayList<>();
+            this.primitives = null;
+        }
+        this.primitiveCount = 0;
+    }
+
+    /**
+     * Boxes the primitive at the index into a new tag.
+     */
+    private NBTBase box(int i) {
+        return switch (this.tagType) {
+            case 1 -> new NBTTagByte(((byte[]) this.primitives)[i]);
+            case 2 -> new NBTTagShort(((short[]) this.primitives)[i]);
+            case 3 -> new NBTTagInt(((int[]) this.primitives)[i]);
+            case 4 -> new NBTTagLong(((long[]) this.primitives)[i]);
+            case 5 -> new NBTTagFloat(((float[]) this.primitives)[i]);
+            default -> new NBTTagDouble(((double[]) this.primitives)[i]);
+        };
+    }
+
+    /**
+     * Unboxes the tag, which must match the tag type, into the primitive array at the index.
+     */
+    private void store(int i, NBTBase tag) {
+        NBTPrimitive primitive = (NBTPrimitive) tag;
+        switch (this.tagType) {
+            case 1 -> ((byte[]) this.primitives)[i] = primitive.toByte();
+            case 2 -> ((short[]) this.primitives)[i] = primitive.toShort();
+            case 3 -> ((int[]) this.primitives)[i] = primitive.toInt();
+            case 4 -> ((long[]) this.primitives)[i] = primitive.toLong();
+            case 5 -> ((float[]) this.primitives)[i] = primitive.toFloat();
+            case 6 -> ((double[]) this.primitives)[i] = primitive.toDouble();
+        }
+    }
+
+    /**
+     * The hash code the boxed tag at the index would have, computed without boxing it.
+     */
+    private int elementHash(int i) {
+        if (this.primitives == null) {
+            return this.tagList.get(i).hashCode();
+        }
+
+        int value = switch (this.tagType) {
+            case 1 -> ((byte[]) this.primitives)[i];
+            case 2 -> ((short[]) this.primitives)[i];
+            case 3 -> ((int[]) this.primitives)[i];
+            case 4 -> Long.hashCode(((long[]) this.primitives)[i]);
+            case 5 -> Float.floatToIntBits(((float[]) this.primitives)[i]);
+            default -> Double.hashCode(((double[]) this.primitives)[i]);
+        };
+        return this.tagType ^ value;
+    }
 
-            for (int k = 0; k < j; ++k) {
-                sizeTracker.accumulateSize(32); //Forge: 4 extra bytes for the object allocation.
-                NBTBase nbtbase = NBTBase.Type.byId(this.tagType).newInstance();
-                nbtbase.read(input, depth + 1, sizeTracker);
-                this.tagList.add(nbtbase);
+    /**
+     * Compares the unboxed values of two primitive lists of the same type and size, with the same semantics as the
+     * equals of the boxed tags.
+     */
+    private boolean primitivesEqual(NBTTagList other) {
+        for (int i = 0; i < this.primitiveCount; ++i) {
+            boolean equal = switch (this.tagType) {
+                case 1 -> ((byte[]) this.primitives)[i] == ((byte[]) other.primitives)[i];
+                case 2 -> ((short[]) this.primitives)[i] == ((short[]) other.primitives)[i];
+                case 3 -> ((int[]) this.primitives)[i] == ((int[]) other.primitives)[i];
+                case 4 -> ((long[]) this.primitives)[i] == ((long[]) other.primitives)[i];
+                case 5 -> ((float[]) this.primitives)[i] == ((float[]) other.primitives)[i];
+                default -> ((double[]) this.primitives)[i] == ((double[]) other.primitives)[i];
+            };
+
+            if (!equal) {
+                return false;
             }
         }
+        return true;
     }
 
     /**
@@ -67,11 +283,9 @@ public class NBTTagList extends NBTBase {
     @Override
     public String toString() {
         StringBuilder s = new StringBuilder("[");
-        int i = 0;
 
-        for (Iterator<NBTBase> iterator = this.tagList.iterator(); iterator.hasNext(); ++i) {
-            NBTBase nbtbase = iterator.next();
-            s.append(i).append(':').append(nbtbase).append(',');
+        for (int i = 0; i < this.size(); ++i) {
+            s.append(i).append(':').append(this.at(i)).append(',');
         }
 
         return s + "]";
@@ -82,18 +296,36 @@ public class NBTTagList extends NBTBase {
      * previous tag.
      */
     public void appendTag(NBTBase tag) {
+        this.unshare();
+
         if (this.tagType == 0) {
+            if (this.size() == 0) {
+                this.initStorage(tag.getType());
+            }
             this.tagType = tag.getType();
         } else if (this.tagType != tag.getType()) {
             System.err.println("WARNING: Adding mismatching tag types to tag list");
             return;
         }
 
-        this.tagList.add(tag);
+        if (this.primitives != null) {
+            if (this.primitiveCount == Array.getLength(this.primitives)) {
+                Object grown = newPrimitives(this.tagType, Math.max(4, this.primitiveCount * 2));
+                System.arraycopy(this.primitives, 0, grown, 0, this.primitiveCount);
+                this.primitives = grown;
+            }
+            this.store(this.primitiveCount++, tag);
+            this.changed();
+        } else {
+            this.tagList.add(tag);
+            this.attach(tag);
+        }
     }
 
     public void setTag(int i, NBTBase tag) {
-        if (i >= 0 && i < this.tagList.size()) {
+        this.unshare();
+
+        if (i >= 0 && i < this.size()) {
             if (this.tagType == 0) {
                 this.tagType = tag.getType();
             } else if (this.tagType != tag.getType()) {
@@ -101,7 +333,13 @@ public class NBTTagList extends NBTBase {
                 return;
             }
 
-            this.tagList.set(i, tag);
+            if (this.primitives != null) {
+                this.store(i, tag);
+                this.changed();
+            } else {
+                this.detach(this.tagList.set(i, tag));
+                this.attach(tag);
+            }
         } else {
             System.err.println("WARNING: index out of bounds to set tag in tag list");
         }
@@ -111,12 +349,26 @@ public class NBTTagList extends NBTBase {
      * Removes a tag at the given index.
      */
     public NBTBase removeTag(int i) {
-        return this.tagList.remove(i);
+        this.unshare();
+
+        if (this.primitives == null) {
+            NBTBase removed = this.tagList.remove(i);
+            this.detach(removed);
+            return removed;
+        } else if (i < 0 || i >= this.primitiveCount) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + this.primitiveCount);
+        }
+
+        NBTBase removed = this.box(i);
+        System.arraycopy(this.primitives, i + 1, this.primitives, i, this.primitiveCount - i - 1);
+        --this.primitiveCount;
+        this.changed();
+        return removed;
     }
 
     private NBTBase getAtOrDefault(int i, Type type) {
-        if (i >= 0 && i < this.tagList.size()) {
-            NBTBase nbt = this.tagList.get(i);
+        if (i >= 0 && i < this.size()) {
+            NBTBase nbt = this.getTag(i);
             if (nbt.getType() == type.getId()) {
                 return nbt;
             }
@@ -124,34 +376,69 @@ public class NBTTagList extends NBTBase {
         return type.newInstance();
     }
 
+    /**
+     * Gets the tag at the index, or null if out of bounds. Primitives are boxed into a new tag on every call.
+     */
     public @Nullable NBTBase getTag(int i) {
-        if (i >= 0 && i < this.tagList.size()) {
-            return this.tagList.get(i);
+        if (i >= 0 && i < this.size()) {
+            if (this.shared && this.primitives == null && this.tagList.get(i).isMutable()) {
+                this.unshare();
+            }
+            return this.at(i);
         }
         return null;
     }
 
+    private NBTBase at(int i) {
+        return this.primitives != null ? this.box(i) : this.tagList.get(i);
+    }
+
+    /**
+     * Whether the index holds an unboxed primitive of the given type.
+     */
+    private boolean hasPrimitive(int i, byte type) {
+        return this.primitives != null && this.tagType == type && i >= 0 && i < this.primitiveCount;
+    }
+
     public byte getByte(int i) {
+        if (this.hasPrimitive(i, (byte) 1)) {
+            return ((byte[]) this.primitives)[i];
+        }
         return ((NBTTagByte) getAtOrDefault(i, Type.BYTE)).toByte();
     }
 
     public short getShort(int i) {
+        if (this.hasPrimitive(i, (byte) 2)) {
+            return ((short[]) this.primitives)[i];
+        }
         return ((NBTTagShort) getAtOrDefault(i, Type.SHORT)).toShort();
     }
 
     public int getInteger(int i) {
+        if (this.hasPrimitive(i, (byte) 3)) {
+            return ((int[]) this.primitives)[i];
+        }
         return ((NBTTagInt) getAtOrDefault(i, Type.INT)).toInt();
     }
 
     public long getLong(int i) {
+        if (this.hasPrimitive(i, (byte) 4)) {
+            return ((long[]) this.primitives)[i];
+        }
         return ((NBTTagLong) getAtOrDefault(i, Type.LONG)).toLong();
     }
 
     public float getFloat(int i) {
+        if (this.hasPrimitive(i, (byte) 5)) {
+            return ((float[]) this.primitives)[i];
+        }
         return ((NBTTagFloat) getAtOrDefault(i, Type.FLOAT)).toFloat();
     }
 
     public double getDouble(int i) {
+        if (this.hasPrimitive(i, (byte) 6)) {
+            return ((double[]) this.primitives)[i];
+        }
         return ((NBTTagDouble) getAtOrDefault(i, Type.DOUBLE)).toDouble();
     }
 
@@ -179,7 +466,7 @@ public class NBTTagList extends NBTBase {
      * Returns the number of tags in the list.
      */
     public int tagCount() {
-        return this.tagList.size();
+        return this.size();
     }
 
     /**
@@ -190,28 +477,106 @@ public class NBTTagList extends NBTBase {
         NBTTagList nbttaglist = new NBTTagList();
         nbttaglist.tagType = this.tagType;
 
-        for (NBTBase nbtbase : this.tagList) {
-            NBTBase copy = nbtbase.copy();
-            nbttaglist.tagList.add(copy);
+        if (this.primitives != null) {
+            nbttaglist.tagList = null;
+            nbttaglist.primitives = newPrimitives(this.tagType, this.primitiveCount);
+            nbttaglist.primitiveCount = this.primitiveCount;
+            System.arraycopy(this.primitives, 0, nbttaglist.primitives, 0, this.primitiveCount);
+        } else {
+            for (NBTBase nbtbase : this.tagList) {
+                NBTBase copy = nbtbase.copy();
+                nbttaglist.tagList.add(copy);
+                nbttaglist.attach(copy);
+            }
         }
 
         return nbttaglist;
     }
 
+    /**
+     * Creates a copy in constant time that shares all its tags with this list, copying them on the first change the
+     * same way as {@link NBTTagCompound#copyOnWrite()}.
+     */
+    public NBTTagList copyOnWrite() {
+        return (NBTTagList) this.share();
+    }
+
+    @Override
+    NBTBase share() {
+        NBTTagList copy = new NBTTagList();
+        copy.tagList = this.tagList;
+        copy.primitives = this.primitives;
+        copy.primitiveCount = this.primitiveCount;
+        copy.tagType = this.tagType;
+        copy.shared = this.shared = true;
+        this.shareHash(copy);
+        return copy;
+    }
+
+    private void unshare() {
+        if (this.shared) {
+            if (this.primitives != null) {
+                Object primitives = newPrimitives(this.tagType, this.primitiveCount);
+                System.arraycopy(this.primitives, 0, primitives, 0, this.primitiveCount);
+                this.primitives = primitives;
+            } else {
+                List<NBTBase> tags = new ArrayList<>(this.tagList.size());
+                for (NBTBase tag : this.tagList) {
+                    NBTBase copy = tag.share();
+                    tags.add(copy);
+                    this.attach(copy);
+                }
+                this.tagList = tags;
+            }
+            this.shared = false;
+        }
+    }
+
     public boolean equals(Object other) {
+        if (other instanceof NBTTagLazy lazy) {
+            other = lazy.resolve();
+        }
+
         if (super.equals(other)) {
             NBTTagList nbttaglist = (NBTTagList) other;
 
-            if (this.tagType == nbttaglist.tagType) {
-                return this.tagList.equals(nbttaglist.tagList);
+            if (this.tagType == nbttaglist.tagType && this.size() == nbttaglist.size()
+                && !this.hashDiffers(nbttaglist)) {
+                if (this.primitives != null && nbttaglist.primitives != null) {
+                    return this.primitivesEqual(nbttaglist);
+                }
+
+                for (int i = 0; i < this.size(); ++i) {
+                    if (!this.at(i).equals(nbttaglist.at(i))) {
+                        return false;
+                    }
+                }
+
+                return true;
             }
         }
 
         return false;
     }
 
-    public int hashCode() {
-        return super.hashCode() ^ this.tagList.hashCode();
+    @Override
+    int computeHash() {
+        int hash = 1;
+
+        for (int i = 0; i < this.size(); ++i) {
+            hash = 31 * hash + this.elementHash(i);
+        }
+
+        return this.getType() ^ hash;
+    }
+
+    @Override
+    void checkArrays() {
+        if (this.tagList != null) {
+            for (NBTBase tag : this.tagList) {
+                checkArrays(tag);
+            }
+        }
     }
 
     public int getTagType() {
@@ -25,7 +25,6 @@ public class NBTTagLong extends NBTBase.NBTPrimitive {
 
     @Override
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
-        sizeTracker.accumulateSize(64L);
         this.data = input.readLong();
     }
 
@@ -0,0 +1,330 @@
+package net.minecraft.nbt;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+/**
+ * The compact map behind {@link NBTTagCompound}, storing keys and values interleaved in a single array.
+ * <p>
+ * Up to {@value #LINEAR_MAX} entries are kept packed in insertion order and found by a linear scan, which beats
+ * hashing for the handful of keys most compounds have. Past that the array becomes an open-addressing table with
+ * linear probing, kept at most half full. Neither mode allocates an object per entry.
+ * <p>
+ * Keys must not be null. Iteration fails fast like {@link java.util.HashMap}, and removing through an iterator is
+ * supported.
+ */
+final class NBTTagMap extends AbstractMap<String, NBTBase> {
+
+    private static final Object[] EMPTY = new Object[0];
+    /** The most entries held in linear mode. */
+    private static final int LINEAR_MAX = 8;
+
+    /** Keys at even and values at odd indices. */
+    private Object[] table = EMPTY;
+    private int size;
+    private boolean hashed;
+    private int modCount;
+
+    NBTTagMap() {}
+
+    /**
+     * A copy of the map with the same layout, holding the same values.
+     */
+    NBTTagMap(NBTTagMap map) {
+        this.table = map.size > 0 ? map.table.clone() : EMPTY;
+        this.size = map.size;
+        this.hashed = map.hashed;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    private static int spread(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * The array index of the key, or -1 if it is not in the map.
+     */
+    private int indexOf(Object key) {
+        if (key == null) {
+            return -1;
+        }
+
+        Object[] table = this.table;
+
+        if (!this.hashed) {
+            for (int i = 0; i < this.size * 2; i += 2) {
+                Object k = table[i];
+                if (k == key || k.equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int mask = table.length / 2 - 1;
+        for (int slot = spread(key) & mask; ; slot = (slot + 1) & mask) {
+            Object k = table[slot * 2];
+            if (k == null) {
+                return -1;
+            } else if (k == key || k.equals(key)) {
+                return slot * 2;
+            }
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return this.indexOf(key) >= 0;
+    }
+
+    @Override
+    public NBTBase get(Object key) {
+        int i = this.indexOf(key);
+        return i >= 0 ? (NBTBase) this.table[i + 1] : null;
+    }
+
+    @Override
+    public NBTBase put(String key, NBTBase value) {
+        Objects.requireNonNull(key, "NBT keys must not be null");
+        int i = this.indexOf(key);
+
+        if (i >= 0) {
+            NBTBase previous = (NBTBase) this.table[i + 1];
+            this.table[i + 1] = value;
+            return previous;
+        }
+
+        ++this.modCount;
+
+        if (!this.hashed) {
+            if (this.size < LINEAR_MAX) {
+                if (this.size * 2 == this.table.length) {
+                    Object[] grown = new Object[Math.max(8, this.table.length * 2)];
+                    System.arraycopy(this.table, 0, grown, 0, this.table.length);
+                    this.table = grown;
+                }
+                this.table[this.size * 2] = key;
+                this.table[this.size * 2 + 1] = value;
+                ++this.size;
+                return null;
+            }
+
+            this.rehash(LINEAR_MAX * 4);
+        } else if ((this.size + 1) * 2 > this.table.length / 2) {
+            this.rehash(this.table.length);
+        }
+
+        insert(this.table, key, value);
+        ++this.size;
+        return null;
+    }
+
+    /**
+     * Places a key known to be absent into a hashed table.
+     */
+    private static void insert(Object[] table, Object key, Object value) {
+        int mask = table.length / 2 - 1;
+        int slot = spread(key) & mask;
+        while (table[slot * 2] != null) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot * 2] = key;
+        table[slot * 2 + 1] = value;
+    }
+
+    /**
+     * Moves every entry into a new hashed table with the given number of slots.
+     */
+    private void rehash(int slots) {
+        Object[] old = this.table;
+        Object[] table = new Object[slots * 2];
+
+        for (int i = 0; i < old.length; i += 2) {
+            if (old[i] != null) {
+                insert(table, old[i], old[i + 1]);
+            }
+        }
+
+        this.table = table;
+        this.hashed = true;
+    }
+
+    @Override
+    public NBTBase remove(Object key) {
+        int i = this.indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+
+        NBTBase previous = (NBTBase) this.table[i + 1];
+        this.removeAt(i);
+        return previous;
+    }
+
+    private void removeAt(int i) {
+        ++this.modCount;
+        --this.size;
+        Object[] table = this.table;
+
+        if (!this.hashed) {
+            System.arraycopy(table, i + 2, table, i, this.size * 2 - i);
+            table[this.size * 2] = null;
+            table[this.size * 2 + 1] = null;
+            return;
+        }
+
+        // Backward shift deletion: pull later entries of the probe run into the gap, so lookups never stop early.
+        int mask = table.length / 2 - 1;
+        int gap = i / 2;
+        for (int slot = (gap + 1) & mask; table[slot * 2] != null; slot = (slot + 1) & mask) {
+            int ideal = spread(table[slot * 2]) & mask;
+            if (((slot - ideal) & mask) >= ((slot - gap) & mask)) {
+                table[gap * 2] = table[slot * 2];
+                table[gap * 2 + 1] = table[slot * 2 + 1];
+                gap = slot;
+            }
+        }
+        table[gap * 2] = null;
+        table[gap * 2 + 1] = null;
+    }
+
+    @Override
+    public void clear() {
+        if (this.size > 0) {
+            ++this.modCount;
+        }
+        this.table = EMPTY;
+        this.size = 0;
+        this.hashed = false;
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super NBTBase, ? extends NBTBase> function) {
+        Object[] table = this.table;
+
+        for (int i = 0; i < table.length; i += 2) {
+            if (table[i] != null) {
+                table[i + 1] = function.apply((String) table[i], (NBTBase) table[i + 1]);
+            }
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<String, NBTBase>> entrySet() {
+        return new AbstractSet<>() {
+
+            @Override
+            public Iterator<Map.Entry<String, NBTBase>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return NBTTagMap.this.size;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (o instanceof Map.Entry<?, ?> entry) {
+                    int i = NBTTagMap.this.indexOf(entry.getKey());
+                    return i >= 0 && Objects.equals(NBTTagMap.this.table[i + 1], entry.getValue());
+                }
+                return false;
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                if (this.contains(o)) {
+                    NBTTagMap.this.remove(((Map.Entry<?, ?>) o).getKey());
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            public void clear() {
+                NBTTagMap.this.clear();
+            }
+        };
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<String, NBTBase>> {
+
+        /** The array iterated over, replaced by a private copy on the first removal. */
+        private Object[] table = NBTTagMap.this.table;
+        private int next;
+        private String current;
+        private int expectedModCount = NBTTagMap.this.modCount;
+
+        @Override
+        public boolean hasNext() {
+            while (this.next < this.table.length && this.table[this.next] == null) {
+                this.next += 2;
+            }
+            return this.next < this.table.length;
+        }
+
+        @Override
+        public Map.Entry<String, NBTBase> next() {
+            if (NBTTagMap.this.modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            } else if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            this.current = (String) this.table[this.next];
+            Map.Entry<String, NBTBase> entry = new Entry(this.current, (NBTBase) this.table[this.next + 1]);
+            this.next += 2;
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            if (this.current == null) {
+                throw new IllegalStateException();
+            } else if (NBTTagMap.this.modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+
+            // removal compacts or shifts entries, which must not disturb the remaining iteration
+            if (this.table == NBTTagMap.this.table) {
+                this.table = this.table.clone();
+            }
+
+            NBTTagMap.this.remove(this.current);
+            this.current = null;
+            this.expectedModCount = NBTTagMap.this.modCount;
+        }
+    }
+
+    @SuppressWarnings("serial") // never serialized, it writes through to the map
+    private final class Entry extends AbstractMap.SimpleEntry<String, NBTBase> {
+
+        Entry(String key, NBTBase value) {
+            super(key, value);
+        }
+
+        @Override
+        public NBTBase setValue(NBTBase value) {
+            NBTTagMap.this.put(this.getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
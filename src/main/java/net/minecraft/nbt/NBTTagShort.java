@@ -25,7 +25,6 @@ public class NBTTagShort extends NBTBase.NBTPrimitive {
 
     @Override
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
-        sizeTracker.accumulateSize(16L);
         this.data = input.readShort();
     }
 
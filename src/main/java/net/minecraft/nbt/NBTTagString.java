@@ -26,13 +26,12 @@ public class NBTTagString extends NBTBase {
      */
     @Override
     void write(DataOutput output) throws IOException {
-        output.writeUTF(this.data);
+        NBTStringCodec.write(output, this.data);
     }
 
     @Override
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
-        this.data = input.readUTF();
-        NBTSizeTracker.readUTF(sizeTracker, data); // Forge: Correctly read String length including header.
+        this.data = NBTStringCodec.read(input, sizeTracker); // Forge: Correctly read String length including header.
     }
 
     /**
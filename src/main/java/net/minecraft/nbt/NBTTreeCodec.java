@@ -0,0 +1,293 @@
+package net.minecraft.nbt;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Reads and writes nested compounds and lists with an explicit stack of frames instead of recursion, so the Java
+ * stack used stays flat however deep the tree goes.
+ * <p>
+ * Every compound and list that still has values to read or write takes one frame. Codecs are taken from a small
+ * shared pool rather than kept per thread, and those whose frames grew for a very deep tree are not pooled again. Leaf
+ * values are handled by their own tag.
+ */
+final class NBTTreeCodec {
+
+    /** The idle codecs, about one per processor that may be reading or writing at the same time. */
+    private static final ArrayBlockingQueue<NBTTreeCodec> POOL = new ArrayBlockingQueue<>(
+        Runtime.getRuntime().availableProcessors());
+    /** Codecs with more frames than this are left to the garbage collector. */
+    private static final int MAX_RETAINED = 64;
+    /**
+     * The most bits of primitives and strings a container holds back from the size tracker, so a huge flat container
+     * still fails soon after it goes over budget.
+     */
+    private static final long MAX_PENDING = 8L * 65536;
+
+    /** The compound or list of each frame. */
+    private NBTBase[] containers = new NBTBase[16];
+    /**
+     * Reading, the tags a compound has not given to the size tracker yet, or the tags a list has left to read.
+     * Writing, the index of the next element of a list.
+     */
+    private int[] counts = new int[16];
+    /** Reading, the size in bits a compound or a list of strings has not given to the size tracker yet. */
+    private long[] sizes = new long[16];
+    /** Writing, the entries a compound has left to write. */
+    private Object[] iterators = new Object[16];
+    /** The number of frames used since the codec was taken from the pool, the only ones to clear. */
+    private int used;
+
+    private NBTTreeCodec() {}
+
+    /**
+     * Reads the payload of a compound or list, including everything nested in it.
+     */
+    static void read(NBTBase container, DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
+        NBTTreeCodec codec = acquire();
+
+        try {
+            codec.decode(container, input, depth, sizeTracker);
+        } finally {
+            codec.release();
+        }
+    }
+
+    /**
+     * Writes the payload of a compound or list, including everything nested in it.
+     */
+    static void write(NBTBase container, DataOutput output) throws IOException {
+        NBTTreeCodec codec = acquire();
+
+        try {
+            codec.encode(container, output);
+        } finally {
+            codec.release();
+        }
+    }
+
+    /**
+     * An idle codec from the pool, or a new one if there is none.
+     */
+    private static NBTTreeCodec acquire() {
+        NBTTreeCodec codec = POOL.poll();
+        return codec != null ? codec : new NBTTreeCodec();
+    }
+
+    /**
+     * Drops the references held by the frames used, a read or write that failed may leave some behind, and returns
+     * the codec to the pool unless its frames grew too large.
+     */
+    private void release() {
+        Arrays.fill(this.containers, 0, this.used, null);
+        Arrays.fill(this.iterators, 0, this.used, null);
+        this.used = 0;
+
+        if (this.containers.length <= MAX_RETAINED) {
+            POOL.offer(this);
+        }
+    }
+
+    private void decode(NBTBase root, DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
+        boolean lazy = input instanceof NBTByteBufferInput bufferInput && bufferInput.isLazy();
+        int top = this.open(-1, root, input, depth, sizeTracker);
+
+        while (top >= 0) {
+            int childDepth = depth + top + 1;
+            NBTBase child;
+
+            if (this.containers[top] instanceof NBTTagCompound compound) {
+                byte tagType = input.readByte();
+
+                if (tagType == 0) {
+                    sizeTracker.accumulate(this.sizes[top] + 8, this.counts[top]); // and the END byte
+                    this.containers[top--] = null;
+                    continue;
+                }
+
+                int keyLength = input.readUnsignedShort();
+                String key = NBTKeyPool.readKey(input, keyLength);
+                //Forge: The type, the key including its length header and 4 extra bytes for the object allocation.
+                this.sizes[top] += 8 + 16 + 8L * keyLength + 32;
+                ++this.counts[top];
+                NBTBase.Type type = NBTBase.Type.byId(tagType);
+                int fixedSize = type.fixedSize();
+
+                // Primitives and strings are counted together and checked every 64 KiB or before a container or array
+                if (fixedSize >= 0) {
+                    this.sizes[top] += 8L * fixedSize;
+                    this.flushCompound(top, sizeTracker, MAX_PENDING);
+                    child = type.newInstance();
+                    child.read(input, childDepth, sizeTracker);
+                    compound.setTag(key, child);
+                    continue;
+                } else if (tagType == 8) {
+                    int length = input.readUnsignedShort();
+                    this.sizes[top] += 16 + 8L * length;
+                    this.flushCompound(top, sizeTracker, MAX_PENDING);
+                    compound.setTag(key, new NBTTagString(NBTStringCodec.read(input, length)));
+                    continue;
+                }
+
+                this.flushCompound(top, sizeTracker, 0L);
+
+                if (lazy && (tagType == 9 || tagType == 10)) {
+                    compound.setTag(key, NBTTagLazy.read(tagType, (NBTByteBufferInput) input, childDepth, sizeTracker));
+                    continue;
+                }
+
+                child = type.newInstance();
+                compound.setTag(key, child);
+            } else {
+                NBTTagList list = (NBTTagList) this.containers[top];
+
+                if (this.counts[top] == 0) {
+                    sizeTracker.accumulateSize(this.sizes[top]);
+                    this.containers[top--] = null;
+                    continue;
+                }
+
+                --this.counts[top];
+
+                if (list.getTagType() == 8) {
+                    // strings are short enough to check together every 64 KiB
+                    int length = input.readUnsignedShort();
+                    this.sizes[top] += 16 + 8L * length;
+                    if (this.sizes[top] > MAX_PENDING) {
+                        sizeTracker.accumulateSize(this.sizes[top]);
+                        this.sizes[top] = 0L;
+                    }
+                    list.addRead(new NBTTagString(NBTStringCodec.read(input, length)));
+                    continue;
+                }
+
+                child = NBTBase.Type.byId(list.getTagType()).newInstance();
+                list.addRead(child);
+            }
+
+            if (child instanceof NBTTagCompound || child instanceof NBTTagList) {
+                top = this.open(top, child, input, childDepth, sizeTracker);
+            } else {
+                child.read(input, childDepth, sizeTracker);
+            }
+        }
+    }
+
+    /**
+     * Gives the size and tags a compound holds back to the tracker once they are over the limit.
+     */
+    private void flushCompound(int top, NBTSizeTracker sizeTracker, long limit) {
+        if (this.sizes[top] > limit) {
+            sizeTracker.accumulate(this.sizes[top], this.counts[top]);
+            this.sizes[top] = 0L;
+            this.counts[top] = 0;
+        }
+    }
+
+    /**
+     * Starts reading a compound or list, pushing a frame for it unless it is already complete.
+     *
+     * @return the new top of the stack
+     */
+    private int open(int top, NBTBase container, DataInput input, int depth, NBTSizeTracker sizeTracker)
+        throws IOException {
+        sizeTracker.checkDepth(depth);
+        int count = 0;
+
+        if (container instanceof NBTTagList list) {
+            count = list.readHeader(input, sizeTracker);
+            if (count == 0) {
+                return top;
+            }
+        }
+
+        this.push(++top, container);
+        this.counts[top] = count;
+        this.sizes[top] = 0L;
+        return top;
+    }
+
+    private void encode(NBTBase root, DataOutput output) throws IOException {
+        int top = this.open(-1, root, output);
+
+        while (top >= 0) {
+            NBTBase child;
+
+            if (this.iterators[top] != null) {
+                @SuppressWarnings("unchecked")
+                Iterator<Map.Entry<String, NBTBase>> iterator = (Iterator<Map.Entry<String, NBTBase>>) this.iterators[top];
+
+                if (!iterator.hasNext()) {
+                    output.writeByte(0);
+                    this.iterators[top] = null;
+                    this.containers[top--] = null;
+                    continue;
+                }
+
+                Map.Entry<String, NBTBase> entry = iterator.next();
+                child = entry.getValue();
+                output.writeByte(child.getType());
+
+                if (child.getType() == 0) {
+                    continue;
+                }
+
+                NBTStringCodec.write(output, entry.getKey());
+            } else {
+                NBTTagList list = (NBTTagList) this.containers[top];
+
+                if (this.counts[top] == list.tagCount()) {
+                    this.containers[top--] = null;
+                    continue;
+                }
+
+                child = list.element(this.counts[top]++);
+            }
+
+            if (child instanceof NBTTagCompound || child instanceof NBTTagList) {
+                top = this.open(top, child, output);
+            } else {
+                child.write(output);
+            }
+        }
+    }
+
+    /**
+     * Starts writing a compound or list, pushing a frame for it unless it is already complete.
+     *
+     * @return the new top of the stack
+     */
+    private int open(int top, NBTBase container, DataOutput output) throws IOException {
+        if (container instanceof NBTTagList list) {
+            if (!list.writeHeader(output)) {
+                return top;
+            }
+
+            this.push(++top, container);
+            this.counts[top] = 0;
+        } else {
+            this.push(++top, container);
+            this.iterators[top] = ((NBTTagCompound) container).entryIterator();
+        }
+
+        return top;
+    }
+
+    private void push(int top, NBTBase container) {
+        if (top == this.containers.length) {
+            int length = top * 2;
+            this.containers = Arrays.copyOf(this.containers, length);
+            this.counts = Arrays.copyOf(this.counts, length);
+            this.sizes = Arrays.copyOf(this.sizes, length);
+            this.iterators = Arrays.copyOf(this.iterators, length);
+        }
+
+        this.containers[top] = container;
+        this.used = Math.max(this.used, top + 1);
+    }
+}
@@ -0,0 +1,54 @@
+package net.minecraft.nbt;
+
+/**
+ * Receives the contents of an NBT stream as it is decoded by
+ * {@link CompressedStreamTools#accept(java.io.DataInput, NBTVisitor, NBTSizeTracker)}, without building any tags.
+ * <p>
+ * Every compound is reported as {@link #visitCompoundStart()}, then a {@link #visitKey} followed by the value for
+ * each entry, then {@link #visitCompoundEnd()}. Lists report their elements between {@link #visitListStart} and
+ * {@link #visitListEnd()}. All methods do nothing by default, so implementations only override what they need.
+ */
+public interface NBTVisitor {
+
+    default void visitCompoundStart() {}
+
+    /**
+     * Called before each value of a compound.
+     *
+     * @return false to skip the value without decoding it
+     */
+    default boolean visitKey(byte type, String key) {
+        return true;
+    }
+
+    default void visitCompoundEnd() {}
+
+    /**
+     * Called before the elements of a list.
+     *
+     * @return false to skip the whole list without decoding it, in which case {@link #visitListEnd()} is not called
+     */
+    default boolean visitListStart(byte elementType, int size) {
+        return true;
+    }
+
+    default void visitListEnd() {}
+
+    default void visitByte(byte value) {}
+
+    default void visitShort(short value) {}
+
+    default void visitInt(int value) {}
+
+    default void visitLong(long value) {}
+
+    default void visitFloat(float value) {}
+
+    default void visitDouble(double value) {}
+
+    default void visitByteArray(byte[] value) {}
+
+    default void visitString(String value) {}
+
+    default void visitIntArray(int[] value) {}
+}
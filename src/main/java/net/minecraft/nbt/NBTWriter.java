@@ -0,0 +1,280 @@
+package net.minecraft.nbt;
+
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writes NBT straight to a DataOutput without building a tree first. The output is byte-identical to
+ * {@link CompressedStreamTools#write(NBTTagCompound, DataOutput)} for a compound holding the same values in the same
+ * order, so the root should be opened with {@code beginCompound("")}.
+ * <p>
+ * Inside a compound every value is written with a name, inside a list without one. List sizes are declared up front and
+ * elements must all be of the declared type, as {@link NBTTagList#appendTag} requires; anything else throws
+ * {@link IllegalStateException} before a byte is written.
+ */
+public class NBTWriter implements Closeable {
+
+    private final DataOutput output;
+
+    /** The type of each open container, 9 for lists and 10 for compounds. */
+    private byte[] containerTypes = new byte[16];
+    /** The declared element type of each open list. */
+    private byte[] elementTypes = new byte[16];
+    /** The elements still to be written to each open list. */
+    private int[] remaining = new int[16];
+    private int depth;
+    private boolean finished;
+
+    public NBTWriter(DataOutput output) {
+        this.output = output;
+    }
+
+    /**
+     * Opens a compound. Without an enclosing container this is the root compound.
+     */
+    public void beginCompound(String name) throws IOException {
+        this.checkDepth();
+        this.header(name, (byte) 10);
+        this.push((byte) 10, (byte) 0, 0);
+    }
+
+    /**
+     * Opens a compound as the next element of the current list.
+     */
+    public void beginCompound() throws IOException {
+        this.beginCompound(null);
+    }
+
+    public void endCompound() throws IOException {
+        this.pop((byte) 10);
+        this.output.writeByte(0);
+    }
+
+    /**
+     * Opens a list of {@code size} elements of the given type. Empty lists are written with element type 0, as
+     * {@link NBTTagList} does.
+     */
+    public void beginList(String name, byte elementType, int size) throws IOException {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative list size " + size);
+        } else if (elementType < 0 || elementType >= NBTBase.NBTTypes.length || elementType == 0 && size > 0) {
+            throw new IllegalArgumentException("Invalid list element type " + typeName(elementType));
+        }
+
+        this.checkDepth();
+        this.header(name, (byte) 9);
+        byte type = size == 0 ? 0 : elementType;
+        this.output.writeByte(type);
+        this.output.writeInt(size);
+        this.push((byte) 9, type, size);
+    }
+
+    /**
+     * Opens a list as the next element of the current list.
+     */
+    public void beginList(byte elementType, int size) throws IOException {
+        this.beginList(null, elementType, size);
+    }
+
+    public void endList() throws IOException {
+        if (this.depth > 0 && this.containerTypes[this.depth - 1] == 9 && this.remaining[this.depth - 1] != 0) {
+            throw new IllegalStateException("List closed with " + this.remaining[this.depth - 1] + " elements missing");
+        }
+
+        this.pop((byte) 9);
+    }
+
+    public void writeByte(String name, byte value) throws IOException {
+        this.header(name, (byte) 1);
+        this.output.writeByte(value);
+    }
+
+    public void writeByte(byte value) throws IOException {
+        this.writeByte(null, value);
+    }
+
+    public void writeShort(String name, short value) throws IOException {
+        this.header(name, (byte) 2);
+        this.output.writeShort(value);
+    }
+
+    public void writeShort(short value) throws IOException {
+        this.writeShort(null, value);
+    }
+
+    public void writeInt(String name, int value) throws IOException {
+        this.header(name, (byte) 3);
+        this.output.writeInt(value);
+    }
+
+    public void writeInt(int value) throws IOException {
+        this.writeInt(null, value);
+    }
+
+    public void writeLong(String name, long value) throws IOException {
+        this.header(name, (byte) 4);
+        this.output.writeLong(value);
+    }
+
+    public void writeLong(long value) throws IOException {
+        this.writeLong(null, value);
+    }
+
+    public void writeFloat(String name, float value) throws IOException {
+        this.header(name, (byte) 5);
+        this.output.writeFloat(value);
+    }
+
+    public void writeFloat(float value) throws IOException {
+        this.writeFloat(null, value);
+    }
+
+    public void writeDouble(String name, double value) throws IOException {
+        this.header(name, (byte) 6);
+        this.output.writeDouble(value);
+    }
+
+    public void writeDouble(double value) throws IOException {
+        this.writeDouble(null, value);
+    }
+
+    public void writeByteArray(String name, byte[] value) throws IOException {
+        this.header(name, (byte) 7);
+        this.output.writeInt(value.length);
+        this.output.write(value);
+    }
+
+    public void writeByteArray(byte[] value) throws IOException {
+        this.writeByteArray(null, value);
+    }
+
+    public void writeString(String name, String value) throws IOException {
+        if (value == null) {
+            throw new IllegalArgumentException("Empty string not allowed");
+        }
+
+        this.header(name, (byte) 8);
+        NBTStringCodec.write(this.output, value);
+    }
+
+    public void writeString(String value) throws IOException {
+        this.writeString(null, value);
+    }
+
+    public void writeIntArray(String name, int[] value) throws IOException {
+        this.header(name, (byte) 11);
+        this.output.writeInt(value.length);
+        NBTBulkIO.writeInts(this.output, value, value.length);
+    }
+
+    public void writeIntArray(int[] value) throws IOException {
+        this.writeIntArray(null, value);
+    }
+
+    /**
+     * Writes an already built tag, so existing subtrees can be mixed into the stream.
+     */
+    public void writeTag(String name, NBTBase tag) throws IOException {
+        if (tag.getType() == 0) {
+            throw new IllegalArgumentException("END tags cannot be written as values");
+        }
+
+        this.header(name, tag.getType());
+        tag.write(this.output);
+    }
+
+    public void writeTag(NBTBase tag) throws IOException {
+        this.writeTag(null, tag);
+    }
+
+    /**
+     * Checks that every container has been closed, then closes the output if it is closeable.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (this.depth > 0) {
+                throw new IllegalStateException(this.depth + " containers left open");
+            }
+        } finally {
+            if (this.output instanceof Closeable closeable) {
+                closeable.close();
+            }
+        }
+    }
+
+    /**
+     * Validates a value of the given type against the current container and writes its type byte and name, if any.
+     */
+    private void header(String name, byte type) throws IOException {
+        if (this.finished) {
+            throw new IllegalStateException("The root compound has already been closed");
+        }
+
+        if (this.depth == 0) {
+            if (type != 10) {
+                throw new IllegalStateException("Root tag must be a named compound tag");
+            }
+            this.output.writeByte(type);
+            NBTStringCodec.write(this.output, name == null ? "" : name);
+        } else if (this.containerTypes[this.depth - 1] == 10) {
+            if (name == null) {
+                throw new IllegalStateException("Values in a compound need a name");
+            }
+            this.output.writeByte(type);
+            NBTStringCodec.write(this.output, name);
+        } else {
+            if (name != null) {
+                throw new IllegalStateException("List elements have no name, got " + name);
+            }
+            if (this.remaining[this.depth - 1] == 0) {
+                throw new IllegalStateException("List already holds all of its declared elements");
+            }
+            if (this.elementTypes[this.depth - 1] != type) {
+                throw new IllegalStateException("Adding mismatching tag type "
+                    + typeName(type)
+                    + " to a list of "
+                    + typeName(this.elementTypes[this.depth - 1]));
+            }
+            --this.remaining[this.depth - 1];
+        }
+    }
+
+    private static String typeName(int type) {
+        return type >= 0 && type < NBTBase.NBTTypes.length ? NBTBase.NBTTypes[type] : "UNKNOWN(" + type + ")";
+    }
+
+    /**
+     * Fails before the header of a container too deep to be read back is written.
+     */
+    private void checkDepth() {
+        if (this.depth > 512) {
+            throw new IllegalStateException("Tried to write NBT tag with too high complexity, depth > 512");
+        }
+    }
+
+    private void push(byte containerType, byte elementType, int size) {
+        if (this.depth == this.containerTypes.length) {
+            this.containerTypes = Arrays.copyOf(this.containerTypes, this.depth * 2);
+            this.elementTypes = Arrays.copyOf(this.elementTypes, this.depth * 2);
+            this.remaining = Arrays.copyOf(this.remaining, this.depth * 2);
+        }
+
+        this.containerTypes[this.depth] = containerType;
+        this.elementTypes[this.depth] = elementType;
+        this.remaining[this.depth] = size;
+        ++this.depth;
+    }
+
+    private void pop(byte containerType) {
+        if (this.depth == 0 || this.containerTypes[this.depth - 1] != containerType) {
+            throw new IllegalStateException("No open " + typeName(containerType) + " to close");
+        }
+
+        if (--this.depth == 0) {
+            this.finished = true;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package net.minecraft.world.chunk.storage;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.CompressionCodec;
+import net.minecraft.nbt.NBTSizeTracker;
+import net.minecraft.nbt.NBTTagCompound;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * A region file (.mcr or .mca) holding the chunks of a 32x32 chunk area.
+ * <p>
+ * The file is made of 4 KiB sectors. The first holds the location of each chunk, as a three byte sector offset and a
+ * one byte sector count, and the second the time each chunk was last written. A chunk starts with its length and a
+ * compression byte (1 for gzip, 2 for zlib, 3 for none) followed by the compressed compound.
+ * <p>
+ * Chunks are copied out of a memory mapping of the file under the lock and decoded on demand outside it. Writing a
+ * chunk always puts it into free sectors, found in a bitmap of the sectors in use or appended at the end, and forces it
+ * to the disk. Only then is the header pointed at it and forced in turn, and the old sectors freed, so a crash leaves
+ * either the old or the new chunk. {@link #compact()} moves the chunks down over the free sectors and truncates the
+ * file.
+ */
+public class RegionFile implements Closeable {
+
+    private static final int SECTOR_SIZE = 4096;
+    private static final int HEADER_SECTORS = 2;
+    /** The most sectors a chunk can take, as the count is stored in a single byte. */
+    private static final int MAX_CHUNK_SECTORS = 255;
+
+    private static final byte GZIP = 1;
+    private static final byte ZLIB = 2;
+    private static final byte NONE = 3;
+    /** Set on the compression byte of chunks stored in a separate .mcc file. */
+    private static final int EXTERNAL = 128;
+
+    private final File file;
+    private final FileChannel channel;
+    /** The sector offset shifted left by 8 and the sector count of each chunk, or 0 if it is absent. */
+    private final int[] offsets = new int[1024];
+    private final int[] timestamps = new int[1024];
+    /** The sectors in use, by the header or by a chunk. */
+    private final BitSet usedSectors = new BitSet();
+    /** The mapping chunks are read from, remapped once the file has grown past it. */
+    private MappedByteBuffer mapping;
+
+    public RegionFile(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+
+        try {
+            this.readHeader();
+        } catch (IOException | RuntimeException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    private void readHeader() throws IOException {
+        long size = this.channel.size();
+
+        if (size < HEADER_SECTORS * SECTOR_SIZE) {
+            // a new or truncated file gets an empty header
+            this.channel.write(ByteBuffer.allocate(HEADER_SECTORS * SECTOR_SIZE - (int) size), size);
+        } else if (size % SECTOR_SIZE != 0) {
+            // pad a partly written last sector
+            this.channel.write(ByteBuffer.allocate(SECTOR_SIZE - (int) (size % SECTOR_SIZE)), size);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SECTORS * SECTOR_SIZE);
+        while (header.hasRemaining()) {
+            if (this.channel.read(header, header.position()) < 0) {
+                throw new IOException("Unexpected end of region file " + this.file);
+            }
+        }
+        header.flip();
+        header.asIntBuffer().get(this.offsets).get(this.timestamps);
+
+        int sectors = (int) (this.channel.size() / SECTOR_SIZE);
+        this.usedSectors.set(0, HEADER_SECTORS);
+
+        for (int i = 0; i < this.offsets.length; ++i) {
+            int offset = this.offsets[i];
+            int start = offset >>> 8;
+            int count = offset & 0xFF;
+
+            if (offset != 0 && (start < HEADER_SECTORS || count == 0 || start + count > sectors)) {
+                // points outside the file, treat the chunk as missing like the game does
+                this.offsets[i] = 0;
+            } else if (offset != 0) {
+                this.usedSectors.set(start, start + count);
+            }
+        }
+    }
+
+    private static int index(int x, int z) {
+        return (x & 31) + (z & 31) * 32;
+    }
+
+    /**
+     * Whether a chunk is stored at the chunk coordinates, taken modulo 32.
+     */
+    public synchronized boolean hasChunk(int x, int z) {
+        return this.offsets[index(x, z)] != 0;
+    }
+
+    /**
+     * The time the chunk was last written, in seconds since the epoch, or 0 if it is absent.
+     */
+    public synchronized int getTimestamp(int x, int z) {
+        return this.timestamps[index(x, z)];
+    }
+
+    /**
+     * Reads the chunk at the chunk coordinates, taken modulo 32.
+     *
+     * @return the chunk, or null if it is absent
+     */
+    public NBTTagCompound readChunk(int x, int z) throws IOException {
+        return this.readChunk(x, z, NBTSizeTracker.UNLIMITED);
+    }
+
+    public NBTTagCompound readChunk(int x, int z, NBTSizeTracker sizeTracker) throws IOException {
+        // decoding does not need the lock
+        byte[] chunk = this.readChunkData(x, z);
+        if (chunk == null) {
+            return null;
+        }
+
+        byte compression = chunk[0];
+        ByteBuffer data = ByteBuffer.wrap(chunk, 1, chunk.length - 1).slice();
+
+        return switch (compression) {
+            case GZIP -> CompressedStreamTools.read(data, CompressionCodec.GZIP, sizeTracker);
+            case ZLIB -> CompressedStreamTools.read(data, CompressionCodec.ZLIB, sizeTracker);
+            case NONE -> CompressedStreamTools.read(data, sizeTracker);
+            default -> throw new IOException((compression & EXTERNAL) != 0
+                ? "Chunk " + x + ", " + z + " in " + this.file + " is stored in an external file"
+                : "Unknown compression " + compression + " of chunk " + x + ", " + z + " in " + this.file);
+        };
+    }
+
+    /**
+     * Copies the compression byte and the compressed chunk out of the mapping, as its sectors may be reused or
+     * truncated by the next write once the lock is released.
+     *
+     * @return the bytes, or null if the chunk is absent
+     */
+    private synchronized byte[] readChunkData(int x, int z) throws IOException {
+        int offset = this.offsets[index(x, z)];
+        if (offset == 0) {
+            return null;
+        }
+
+        long size = this.channel.size();
+        if (this.mapping == null || this.mapping.capacity() < size) {
+            this.mapping = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        int start = (offset >>> 8) * SECTOR_SIZE;
+        int length = this.mapping.getInt(start);
+        if (length <= 0 || length > (offset & 0xFF) * SECTOR_SIZE - 4) {
+            throw new IOException("Invalid length " + length + " of chunk " + x + ", " + z + " in " + this.file);
+        }
+
+        byte[] chunk = new byte[length];
+        this.mapping.get(start + 4, chunk);
+        return chunk;
+    }
+
+    /**
+     * Writes the chunk, zlib compressed like the game does, at the chunk coordinates taken modulo 32.
+     */
+    public void writeChunk(int x, int z, NBTTagCompound chunk) throws IOException {
+        // compressing does not need the lock
+        byte[] data = CompressedStreamTools.compress(chunk, CompressionCodec.ZLIB);
+        this.writeChunk(x, z, data, ZLIB);
+    }
+
+    private synchronized void writeChunk(int x, int z, byte[] data, byte compression) throws IOException {
+        int sectors = (data.length + 5 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+        if (sectors > MAX_CHUNK_SECTORS) {
+            throw new IOException("Chunk " + x + ", " + z + " is too large to store: " + data.length + " bytes");
+        }
+
+        int start = this.allocate(sectors);
+        ByteBuffer buffer = ByteBuffer.allocate(sectors * SECTOR_SIZE);
+        buffer.putInt(data.length + 1).put(compression).put(data).clear();
+        this.writeFully(buffer, (long) start * SECTOR_SIZE);
+        this.channel.force(false); // the chunk is on the disk before the header points at it
+
+        this.setOffset(index(x, z), start << 8 | sectors, (int) (System.currentTimeMillis() / 1000L));
+    }
+
+    /**
+     * Removes the chunk at the chunk coordinates, taken modulo 32, freeing its sectors.
+     */
+    public synchronized void removeChunk(int x, int z) throws IOException {
+        if (this.offsets[index(x, z)] != 0) {
+            this.setOffset(index(x, z), 0, 0);
+        }
+    }
+
+    /**
+     * Finds the first run of free sectors long enough, or the end of the file, and marks it as used.
+     */
+    private int allocate(int sectors) {
+        int start = this.usedSectors.nextClearBit(HEADER_SECTORS);
+
+        while (true) {
+            int end = this.usedSectors.nextSetBit(start);
+            if (end < 0 || end - start >= sectors) {
+                break;
+            }
+            start = this.usedSectors.nextClearBit(end);
+        }
+
+        this.usedSectors.set(start, start + sectors);
+        return start;
+    }
+
+    /**
+     * Points the header at the new location of a chunk, then frees the sectors it used before once the header is on
+     * the disk, so they are not overwritten while the header there still points at them.
+     */
+    private void setOffset(int index, int offset, int timestamp) throws IOException {
+        int old = this.offsets[index];
+        ByteBuffer entry = ByteBuffer.allocate(4);
+        this.writeFully(entry.putInt(0, offset), 4L * index);
+        this.writeFully(entry.putInt(0, timestamp).clear(), SECTOR_SIZE + 4L * index);
+        this.offsets[index] = offset;
+        this.timestamps[index] = timestamp;
+
+        if (old != 0) {
+            this.channel.force(false);
+            this.usedSectors.clear(old >>> 8, (old >>> 8) + (old & 0xFF));
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += this.channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Moves every chunk down into the free sectors before it and truncates the file after the last one.
+     * <p>
+     * A chunk is only moved into a gap it fits in whole and written like {@link #writeChunk}, so a crash while
+     * compacting leaves every chunk intact, at worst in a file longer than needed.
+     *
+     * @return the number of sectors freed
+     * @throws IOException if reading or moving a chunk fails, or the file cannot be truncated, which some platforms
+     *                     refuse while an earlier mapping of it has not been collected yet; the chunks moved so far
+     *                     stay moved and the sectors after them free
+     */
+    public synchronized int compact() throws IOException {
+        int sectorsBefore = (int) (this.channel.size() / SECTOR_SIZE);
+        boolean moved = true;
+
+        while (moved) {
+            moved = false;
+            // always take the chunk nearest the end, and move it to the first gap it fits in before itself
+            int last = -1;
+            for (int i = 0; i < this.offsets.length; ++i) {
+                if (this.offsets[i] != 0 && (last < 0 || this.offsets[i] >>> 8 > this.offsets[last] >>> 8)) {
+                    last = i;
+                }
+            }
+            if (last < 0) {
+                break;
+            }
+
+            int offset = this.offsets[last];
+            int sectors = offset & 0xFF;
+            int start = this.firstGap(sectors, offset >>> 8);
+            if (start >= 0) {
+                ByteBuffer buffer = ByteBuffer.allocate(sectors * SECTOR_SIZE);
+                while (buffer.hasRemaining()) {
+                    if (this.channel.read(buffer, (long) (offset >>> 8) * SECTOR_SIZE + buffer.position()) < 0) {
+                        throw new IOException("Unexpected end of region file " + this.file);
+                    }
+                }
+                this.usedSectors.set(start, start + sectors);
+                this.writeFully(buffer.flip(), (long) start * SECTOR_SIZE);
+                this.channel.force(false);
+                this.setOffset(last, start << 8 | sectors, this.timestamps[last]);
+                moved = true;
+            }
+        }
+
+        int end = Math.max(this.usedSectors.length(), HEADER_SECTORS);
+        this.mapping = null;
+        this.channel.truncate((long) end * SECTOR_SIZE);
+        return sectorsBefore - end;
+    }
+
+    /**
+     * The start of the first run of free sectors before the limit that is long enough, or -1.
+     */
+    private int firstGap(int sectors, int limit) {
+        for (int start = this.usedSectors.nextClearBit(HEADER_SECTORS); start + sectors <= limit; ) {
+            int end = this.usedSectors.nextSetBit(start);
+            if (end < 0 || end - start >= sectors) {
+                return start;
+            }
+            start = this.usedSectors.nextClearBit(end);
+        }
+        return -1;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.mapping = null;
+        this.channel.close();
+    }
+}
@@ -0,0 +1,842 @@
+package net.minecraft.nbt.test;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.CompressionCodec;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTConcurrentCompound;
+import net.minecraft.nbt.NBTConcurrentList;
+import net.minecraft.nbt.NBTIOService;
+import net.minecraft.nbt.NBTImmutableCompound;
+import net.minecraft.nbt.NBTImmutableList;
+import net.minecraft.nbt.NBTSizeTracker;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagLong;
+import net.minecraft.nbt.NBTTagShort;
+import net.minecraft.nbt.NBTTagString;
+import net.minecraft.nbt.NBTVisitor;
+import net.minecraft.nbt.NBTWriter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+
+public class TestCompressedStreamTools {
+
+    static NBTTagCompound sample() {
+        NBTTagCompound compound = new NBTTagCompound();
+        compound.setByte("byte", (byte) 1);
+        compound.setShort("short", (short) 2);
+        compound.setInteger("int", 3);
+        compound.setLong("long", 4L);
+        compound.setFloat("float", 5.0F);
+        compound.setDouble("double", 6.0D);
+        compound.setString("string", "I'm a String! \u00e9\u4e2d\ud83d\ude00\u0000");
+        compound.setByteArray("bytes", new byte[] { 1, 2, 3 });
+        compound.setIntArray("ints", IntStream.range(-2500, 2500).toArray());
+
+        NBTTagList list = new NBTTagList();
+        for (int i = 0; i < 3; ++i) {
+            NBTTagCompound item = new NBTTagCompound();
+            item.setString("id", "item" + i);
+            item.setTag("names", new NBTTagList());
+            item.getTagList("names", 8).appendTag(new NBTTagString("name" + i));
+            list.appendTag(item);
+        }
+        compound.setTag("list", list);
+        compound.setTag("empty", new NBTTagList());
+
+        NBTTagList doubles = new NBTTagList();
+        NBTTagList shorts = new NBTTagList();
+        NBTTagList longs = new NBTTagList();
+        for (int i = 0; i < 5000; ++i) {
+            doubles.appendTag(new NBTTagDouble(i * 0.25D - 100));
+            shorts.appendTag(new NBTTagShort((short) i));
+            longs.appendTag(new NBTTagLong(-i * 1000000007L));
+        }
+        compound.setTag("doubles", doubles);
+        compound.setTag("shorts", shorts);
+        compound.setTag("longs", longs);
+
+        compound.setTag("nested", new NBTTagCompound());
+        compound.getCompoundTag("nested").setTag("again", compound.copy());
+        return compound;
+    }
+
+    static byte[] toBytes(NBTTagCompound compound) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream)) {
+            CompressedStreamTools.write(compound, dataOutputStream);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    @Test
+    public void testStreamRoundTrip() throws IOException {
+        NBTTagCompound compound = sample();
+        NBTTagCompound read = CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(toBytes(compound))));
+        Assertions.assertEquals(compound, read);
+
+        NBTTagCompound decompressed = CompressedStreamTools.read(
+            CompressedStreamTools.compress(compound),
+            NBTSizeTracker.UNLIMITED);
+        Assertions.assertEquals(compound, decompressed);
+    }
+
+    @Test
+    public void testByteBufferRoundTrip() throws IOException {
+        NBTTagCompound compound = sample();
+        byte[] expected = toBytes(compound);
+
+        for (ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.allocate(expected.length + 8),
+            ByteBuffer.allocateDirect(expected.length + 8) }) {
+            buffer.position(3);
+            CompressedStreamTools.write(compound, buffer);
+            Assertions.assertEquals(3 + expected.length, buffer.position());
+
+            byte[] written = new byte[expected.length];
+            buffer.flip().position(3);
+            buffer.duplicate().get(written);
+            Assertions.assertArrayEquals(expected, written, "ByteBuffer output differs from the stream output");
+
+            Assertions.assertEquals(compound, CompressedStreamTools.read(buffer, NBTSizeTracker.UNLIMITED));
+            Assertions.assertFalse(buffer.hasRemaining());
+        }
+    }
+
+    @Test
+    public void testLazyRead() throws IOException {
+        NBTTagCompound compound = sample();
+        byte[] bytes = toBytes(compound);
+
+        NBTTagCompound lazy = CompressedStreamTools.readLazy(ByteBuffer.wrap(bytes), NBTSizeTracker.UNLIMITED);
+        Assertions.assertEquals(10, lazy.getTagType("nested"));
+        Assertions.assertEquals(3, lazy.getInteger("int"));
+        Assertions.assertArrayEquals(toBytes(lazy), bytes, "Untouched lazy values were not written back verbatim");
+
+        NBTTagList list = lazy.getTagList("list", 10);
+        Assertions.assertEquals("item1", list.getCompound(1).getString("id"));
+        Assertions.assertEquals("name2", list.getCompound(2).getTagList("names", 8).getString(0));
+        Assertions.assertEquals(compound.getCompoundTag("nested"), lazy.getCompoundTag("nested"));
+
+        Assertions.assertEquals(compound, CompressedStreamTools.readLazy(ByteBuffer.wrap(bytes), NBTSizeTracker.UNLIMITED));
+        Assertions.assertEquals(CompressedStreamTools.readLazy(ByteBuffer.wrap(bytes), NBTSizeTracker.UNLIMITED), compound);
+        Assertions.assertEquals(compound.hashCode(), lazy.hashCode());
+
+        // the tracker is charged once a value is decoded, by as much as an eager read charges
+        NBTSizeTracker eager = new NBTSizeTracker(1 << 20);
+        CompressedStreamTools.read(ByteBuffer.wrap(bytes), eager);
+        NBTSizeTracker tracker = new NBTSizeTracker(1 << 20);
+        NBTTagCompound gzipped = CompressedStreamTools.readLazy(ByteBuffer.wrap(CompressedStreamTools.compress(
+            compound)), CompressionCodec.GZIP, tracker);
+        Assertions.assertTrue(tracker.getSize() < eager.getSize());
+        Assertions.assertEquals(compound, gzipped);
+        Assertions.assertEquals(eager.getSize(), tracker.getSize());
+
+        NBTTagCompound limited = CompressedStreamTools.readLazy(ByteBuffer.wrap(bytes), new NBTSizeTracker(30_000));
+        Assertions.assertThrows(RuntimeException.class, () -> limited.getTagList("doubles", 6));
+        // the depth limit of the tracker applies to the values skipped over as well
+        Assertions.assertThrows(RuntimeException.class, () -> CompressedStreamTools.readLazy(ByteBuffer.wrap(bytes),
+            new NBTSizeTracker(1 << 30, Long.MAX_VALUE, 2)));
+    }
+
+    @Test
+    public void testVisitor() throws IOException {
+        NBTTagCompound compound = sample();
+        List<String> keys = new ArrayList<>();
+        int[] intArrayLength = new int[1];
+
+        CompressedStreamTools.accept(
+            new DataInputStream(new ByteArrayInputStream(toBytes(compound))),
+            new NBTVisitor() {
+
+                @Override
+                public boolean visitKey(byte type, String key) {
+                    keys.add(key);
+                    return !key.equals("nested");
+                }
+
+                @Override
+                public void visitIntArray(int[] value) {
+                    intArrayLength[0] += value.length;
+                }
+            },
+            NBTSizeTracker.UNLIMITED);
+
+        Assertions.assertTrue(keys.containsAll(compound.keySet()));
+        Assertions.assertFalse(keys.contains("again"), "Skipped compound was visited");
+        Assertions.assertEquals(compound.getIntArray("ints").length, intArrayLength[0]);
+        Assertions.assertEquals(compound.keySet().size() + 3 * 2, keys.size());
+    }
+
+    @Test
+    public void testWriter() throws IOException {
+        NBTTagCompound compound = new NBTTagCompound();
+        compound.setInteger("int", 3);
+        compound.setString("string", "value");
+        compound.setIntArray("ints", new int[] { 1, 2, 3 });
+        NBTTagList list = new NBTTagList();
+        for (int i = 0; i < 2; ++i) {
+            NBTTagCompound item = new NBTTagCompound();
+            item.setShort("id", (short) i);
+            list.appendTag(item);
+        }
+        compound.setTag("list", list);
+        compound.setTag("empty", new NBTTagList());
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (NBTWriter writer = new NBTWriter(new DataOutputStream(byteArrayOutputStream))) {
+            writer.beginCompound("");
+            for (String key : compound.keySet()) {
+                switch (key) {
+                    case "int" -> writer.writeInt(key, 3);
+                    case "string" -> writer.writeString(key, "value");
+                    case "ints" -> writer.writeIntArray(key, new int[] { 1, 2, 3 });
+                    case "empty" -> {
+                        writer.beginList(key, (byte) 3, 0);
+                        writer.endList();
+                    }
+                    default -> {
+                        writer.beginList(key, (byte) 10, 2);
+                        for (int i = 0; i < 2; ++i) {
+                            writer.beginCompound();
+                            writer.writeShort("id", (short) i);
+                            writer.endCompound();
+                        }
+                        Assertions.assertThrows(IllegalStateException.class, () -> writer.writeInt(1));
+                        writer.endList();
+                    }
+                }
+            }
+            writer.endCompound();
+        }
+
+        Assertions.assertArrayEquals(toBytes(compound), byteArrayOutputStream.toByteArray());
+
+        NBTWriter writer = new NBTWriter(new DataOutputStream(new ByteArrayOutputStream()));
+        writer.beginCompound("");
+        writer.beginList("doubles", (byte) 6, 2);
+        Assertions.assertThrows(IllegalStateException.class, () -> writer.writeFloat(1.0F));
+        writer.writeDouble(1.0D);
+        Assertions.assertThrows(IllegalStateException.class, writer::endList);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> writer.beginList("bad", (byte) 42, 1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> writer.beginList("bad", (byte) 0, 1));
+
+        // a container too deep is refused before its header is written or counted against the list
+        ByteArrayOutputStream deepBytes = new ByteArrayOutputStream();
+        NBTWriter deep = new NBTWriter(new DataOutputStream(deepBytes));
+        deep.beginCompound("");
+        for (int i = 0; i < 511; ++i) {
+            deep.beginCompound("c");
+        }
+        deep.beginList("l", (byte) 10, 1);
+        int written = deepBytes.size();
+        Assertions.assertThrows(IllegalStateException.class, deep::beginCompound);
+        Assertions.assertEquals(written, deepBytes.size());
+        Assertions.assertThrows(IllegalStateException.class, deep::endList, "The list lost an element it never got");
+    }
+
+    @Test
+    public void testSelectedPaths() throws IOException {
+        NBTTagCompound compound = sample();
+        NBTTagCompound selected = CompressedStreamTools.read(
+            new DataInputStream(new ByteArrayInputStream(toBytes(compound))),
+            List.of("int", "list[*].id", "nested.again.ints", "missing.key"),
+            NBTSizeTracker.UNLIMITED);
+
+        Assertions.assertEquals(3, selected.getInteger("int"));
+        Assertions.assertFalse(selected.hasKey("string"));
+        Assertions.assertFalse(selected.hasKey("missing"));
+
+        NBTTagList list = selected.getTagList("list", 10);
+        Assertions.assertEquals(3, list.tagCount());
+        Assertions.assertEquals("item2", list.getCompound(2).getString("id"));
+        Assertions.assertFalse(list.getCompound(2).hasKey("names"));
+
+        NBTTagCompound again = selected.getCompoundTag("nested").getCompoundTag("again");
+        Assertions.assertEquals(1, again.keySet().size());
+        Assertions.assertArrayEquals(compound.getIntArray("ints"), again.getIntArray("ints"));
+    }
+
+    @Test
+    public void testCompressionCodecs() throws IOException {
+        NBTTagCompound compound = sample();
+
+        for (CompressionCodec codec : new CompressionCodec[] { CompressionCodec.GZIP, CompressionCodec.ZLIB,
+            CompressionCodec.DEFLATE, CompressionCodec.NONE, CompressionCodec.LZ4, CompressionCodec.gzip(1, 512),
+            CompressionCodec.lz4(100) }) {
+            byte[] compressed = CompressedStreamTools.compress(compound, codec);
+            Assertions.assertEquals(compound, CompressedStreamTools.read(compressed, codec, NBTSizeTracker.UNLIMITED));
+            Assertions.assertEquals(compound, CompressedStreamTools.readCompressed(new ByteArrayInputStream(compressed), codec));
+        }
+
+        // like a socket that stays open, the stream is not read past the end of the compressed data
+        for (CompressionCodec codec : new CompressionCodec[] { CompressionCodec.GZIP, CompressionCodec.ZLIB,
+            CompressionCodec.DEFLATE }) {
+            ByteArrayInputStream data = new ByteArrayInputStream(CompressedStreamTools.compress(compound, codec));
+            InputStream open = new InputStream() {
+
+                @Override
+                public int read() {
+                    return this.read(new byte[1], 0, 1) < 0 ? -1 : 0;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    Assertions.assertTrue(data.available() > 0, "Read past the end of the compressed data");
+                    return data.read(b, off, len);
+                }
+
+                @Override
+                public int available() {
+                    return data.available();
+                }
+            };
+            Assertions.assertEquals(compound, CompressedStreamTools.readCompressed(open, codec));
+        }
+
+        byte[] uncompressed = toBytes(compound);
+        Assertions.assertTrue(CompressedStreamTools.compress(compound, CompressionCodec.LZ4).length < uncompressed.length);
+        Assertions.assertArrayEquals(uncompressed, CompressedStreamTools.compress(compound, CompressionCodec.NONE));
+
+        // a block header claiming 2 GiB is rejected before anything is allocated
+        byte[] hostile = ByteBuffer.allocate(12).putInt(0x4E4C5A34).putInt(0x80000000 | 0x7FFFFFF0).putInt(0x7FFFFFF0)
+            .array();
+        Assertions.assertThrows(IOException.class, () -> CompressedStreamTools.read(hostile, CompressionCodec.LZ4,
+            NBTSizeTracker.UNLIMITED));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CompressionCodec.lz4(1 << 30));
+    }
+
+    @Test
+    public void testPrimitiveList() {
+        NBTTagList list = new NBTTagList();
+        List<NBTBase> boxed = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            list.appendTag(new NBTTagFloat(i));
+            boxed.add(new NBTTagFloat(i));
+        }
+
+        list.appendTag(new NBTTagInt(1));
+        Assertions.assertEquals(10, list.tagCount(), "Mismatching tag type was appended");
+        Assertions.assertEquals(9 ^ boxed.hashCode(), list.hashCode());
+        Assertions.assertEquals(new NBTTagFloat(3), list.getTag(3));
+        Assertions.assertEquals(0.0D, list.getDouble(3), "Wrong type read as a double");
+
+        list.setTag(3, new NBTTagFloat(-3));
+        Assertions.assertEquals(-3.0F, list.getFloat(3));
+        Assertions.assertEquals(new NBTTagFloat(0), list.removeTag(0));
+        Assertions.assertEquals(9, list.tagCount());
+        Assertions.assertEquals(1.0F, list.getFloat(0));
+        Assertions.assertEquals(0.0F, list.getFloat(9));
+        Assertions.assertEquals(list, list.copy());
+
+        while (list.tagCount() > 0) {
+            list.removeTag(0);
+        }
+        Assertions.assertEquals(0, ((NBTTagList) list.copy()).tagCount());
+    }
+
+    @Test
+    public void testCompoundKeys() {
+        NBTTagCompound compound = new NBTTagCompound();
+        Map<String, NBTBase> expected = new HashMap<>();
+        for (int i = 0; i < 100; ++i) {
+            compound.setInteger("key" + i, i);
+            expected.put("key" + i, new NBTTagInt(i));
+        }
+
+        for (int i = 0; i < 100; i += 3) {
+            compound.removeTag("key" + i);
+            expected.remove("key" + i);
+        }
+        compound.keySet().removeIf(key -> key.endsWith("7"));
+        expected.keySet().removeIf(key -> key.endsWith("7"));
+
+        Assertions.assertEquals(expected.keySet(), compound.keySet());
+        for (Map.Entry<String, NBTBase> entry : expected.entrySet()) {
+            Assertions.assertEquals(entry.getValue(), compound.getTag(entry.getKey()));
+        }
+        Assertions.assertFalse(compound.hasKey("key0"));
+        Assertions.assertEquals(compound, compound.copy());
+        Assertions.assertEquals(compound.hashCode(), compound.copy().hashCode());
+    }
+
+    @Test
+    public void testPooledKeys() throws IOException {
+        NBTTagCompound compound = new NBTTagCompound();
+        compound.setString("id", "minecraft:stone");
+        compound.setString("\u00e9t\u00e9\u4e2d\u0000", "non-ASCII key");
+        byte[] bytes = toBytes(compound);
+
+        NBTTagCompound first = CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(bytes)), NBTSizeTracker.UNLIMITED);
+        NBTTagCompound second = CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(bytes)), NBTSizeTracker.UNLIMITED);
+
+        Assertions.assertEquals(compound, first);
+        Assertions.assertEquals(compound.keySet(), second.keySet());
+        for (String key : first.keySet()) {
+            Assertions.assertSame(key, second.keySet().stream().filter(key::equals).findFirst().orElseThrow());
+        }
+
+        // a flood of one-off keys fills the pool, yet keys read again still get pooled
+        NBTTagCompound flood = new NBTTagCompound();
+        for (int i = 0; i < 20_000; ++i) {
+            flood.setByte("k" + i, (byte) 1);
+        }
+        CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(toBytes(flood))), NBTSizeTracker.UNLIMITED);
+        NBTTagCompound hot = new NBTTagCompound();
+        hot.setByte("hotKey", (byte) 1);
+        byte[] hotBytes = toBytes(hot);
+        String hotKey = CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(hotBytes)), NBTSizeTracker.UNLIMITED).keySet().iterator().next();
+        String again = CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(hotBytes)), NBTSizeTracker.UNLIMITED).keySet().iterator().next();
+        Assertions.assertSame(hotKey, again);
+    }
+
+    @Test
+    public void testSizeTrackerBudgets() throws IOException {
+        byte[] bytes = toBytes(sample());
+        NBTSizeTracker tree = new NBTSizeTracker(1 << 30);
+        NBTSizeTracker visitor = new NBTSizeTracker(1 << 30);
+        CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(bytes)), tree);
+        CompressedStreamTools.accept(new DataInputStream(new ByteArrayInputStream(bytes)), new NBTVisitor() {}, visitor);
+
+        Assertions.assertEquals(visitor.getSize(), tree.getSize());
+        Assertions.assertEquals(visitor.getTagCount(), tree.getTagCount());
+        Assertions.assertEquals(0, NBTSizeTracker.UNLIMITED.getSize());
+
+        Assertions.assertThrows(RuntimeException.class, () -> CompressedStreamTools.read(
+            new DataInputStream(new ByteArrayInputStream(bytes)), new NBTSizeTracker(tree.getSize() - 1)));
+        Assertions.assertThrows(RuntimeException.class, () -> CompressedStreamTools.read(
+            new DataInputStream(new ByteArrayInputStream(bytes)), new NBTSizeTracker(1 << 30, tree.getTagCount() - 1, 512)));
+        Assertions.assertThrows(RuntimeException.class, () -> CompressedStreamTools.read(
+            new DataInputStream(new ByteArrayInputStream(bytes)), new NBTSizeTracker(1 << 30, Long.MAX_VALUE, 1)));
+        Assertions.assertDoesNotThrow(() -> CompressedStreamTools.read(
+            new DataInputStream(new ByteArrayInputStream(bytes)), new NBTSizeTracker(tree.getSize(), tree.getTagCount(), 512)));
+
+        // a list of longs claiming 16 GiB ends early, and is not allocated up front
+        byte[] truncated = ByteBuffer.allocate(14).put((byte) 10).putShort((short) 0).put((byte) 9).putShort((short) 1)
+            .put((byte) 'l').put((byte) 4).putInt(Integer.MAX_VALUE).putShort((short) 0).array();
+        Assertions.assertThrows(RuntimeException.class, () -> CompressedStreamTools.read(
+            new DataInputStream(new ByteArrayInputStream(truncated)), NBTSizeTracker.UNLIMITED));
+
+        // a flat compound is charged as it goes, not only once its END is read
+        NBTTagCompound flat = new NBTTagCompound();
+        for (int i = 0; i < 64; ++i) {
+            flat.setString("s" + i, "x".repeat(4096));
+        }
+        byte[] flatBytes = toBytes(flat);
+        byte[] unterminated = Arrays.copyOf(flatBytes, flatBytes.length - 1);
+        NBTSizeTracker charged = new NBTSizeTracker(1 << 30);
+        Assertions.assertThrows(RuntimeException.class, () -> CompressedStreamTools.read(
+            new DataInputStream(new ByteArrayInputStream(unterminated)), charged));
+        Assertions.assertTrue(charged.getSize() > 0);
+    }
+
+    @Test
+    public void testDeepNesting() throws Exception {
+        NBTTagCompound root = new NBTTagCompound();
+        NBTTagCompound current = root;
+        for (int i = 0; i < 511; ++i) {
+            NBTTagCompound child = new NBTTagCompound();
+            child.setInteger("depth", i);
+            current.setTag("child", child);
+            current = child;
+        }
+        byte[] bytes = toBytes(root);
+
+        // a stack far too small for one Java frame per level
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                NBTTagCompound read = CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(bytes)), NBTSizeTracker.UNLIMITED);
+                Assertions.assertArrayEquals(bytes, toBytes(read));
+            } catch (Throwable t) {
+                failure[0] = t;
+            }
+        }, "small-stack", 128 * 1024);
+        thread.start();
+        thread.join();
+        Assertions.assertNull(failure[0]);
+
+        NBTTagCompound last = new NBTTagCompound();
+        last.setTag("child", new NBTTagCompound());
+        current.setTag("child", last);
+        byte[] tooDeep = toBytes(root);
+        Assertions.assertThrows(RuntimeException.class, () -> CompressedStreamTools.read(
+            new DataInputStream(new ByteArrayInputStream(tooDeep)), NBTSizeTracker.UNLIMITED));
+    }
+
+    @Test
+    public void testCopyOnWrite() throws IOException {
+        NBTTagCompound original = sample();
+        byte[] bytes = toBytes(original);
+        NBTTagCompound copy = original.copyOnWrite();
+        Assertions.assertEquals(original, copy);
+
+        copy.setInteger("int", -3);
+        copy.getIntArray("ints")[0] = 42;
+        copy.getTagList("list", 10).getCompound(1).setString("id", "changed");
+        copy.getCompoundTag("nested").getCompoundTag("again").getTagList("doubles", 6).removeTag(0);
+        copy.getTagList("shorts", 2).appendTag(new NBTTagShort((short) 1));
+
+        Assertions.assertArrayEquals(bytes, toBytes(original));
+        Assertions.assertEquals(42, copy.getIntArray("ints")[0]);
+        Assertions.assertEquals("changed", copy.getTagList("list", 10).getCompound(1).getString("id"));
+        Assertions.assertEquals(4999, copy.getCompoundTag("nested").getCompoundTag("again").getTagList("doubles", 6).tagCount());
+
+        // the source is shared just the same
+        original.getCompoundTag("nested").removeTag("again");
+        Assertions.assertEquals(5000, copy.getCompoundTag("nested").getCompoundTag("again").getTagList("longs", 4).tagCount());
+
+        // a key set taken before the copy removes from its compound only
+        NBTTagCompound keyed = new NBTTagCompound();
+        keyed.setInteger("x", 1);
+        keyed.setInteger("y", 2);
+        keyed.setInteger("z", 3);
+        Set<String> keys = keyed.keySet();
+        NBTTagCompound snapshot = keyed.copyOnWrite();
+        Assertions.assertTrue(keys.remove("x"));
+        NBTTagCompound late = null;
+        for (Iterator<String> iterator = keys.iterator(); iterator.hasNext(); ) {
+            if (iterator.next().equals("y")) {
+                late = keyed.copyOnWrite();
+                iterator.remove();
+            }
+        }
+        Assertions.assertEquals(Set.of("z"), keyed.keySet());
+        Assertions.assertEquals(Set.of("y", "z"), late.keySet());
+        Assertions.assertEquals(Set.of("x", "y", "z"), snapshot.keySet());
+    }
+
+    @Test
+    public void testImmutableTree() throws IOException {
+        NBTTagCompound original = sample();
+        byte[] bytes = toBytes(original);
+        NBTImmutableCompound frozen = NBTImmutableCompound.of(original);
+        Assertions.assertEquals(original.hashCode(), frozen.hashCode());
+        Assertions.assertEquals(original, frozen.toMutable());
+
+        NBTImmutableCompound changed = frozen
+            .with("int", new NBTTagInt(-3))
+            .with("added", new NBTTagString("new"))
+            .without("long");
+        Assertions.assertSame(frozen.getCompoundTag("nested"), changed.getCompoundTag("nested"));
+        Assertions.assertEquals(-3, changed.getInteger("int"));
+        Assertions.assertEquals("new", changed.getString("added"));
+        Assertions.assertFalse(changed.hasKey("long"));
+        Assertions.assertEquals(3, frozen.getInteger("int"));
+
+        NBTImmutableList doubles = frozen.getCompoundTag("nested").getCompoundTag("again").getTagList("doubles", 6);
+        NBTImmutableList fewer = doubles.without(0).append(new NBTTagDouble(1.0D));
+        Assertions.assertEquals(doubles.tagCount(), fewer.tagCount());
+        Assertions.assertEquals(1.0D, fewer.getDouble(fewer.tagCount() - 1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> doubles.append(new NBTTagInt(1)));
+
+        // neither side sees changes made to the other
+        NBTTagCompound thawed = changed.toMutable();
+        thawed.getIntArray("ints")[0] = 42;
+        thawed.getCompoundTag("nested").removeTag("again");
+        original.getTagList("shorts", 2).appendTag(new NBTTagShort((short) 1));
+        Assertions.assertEquals(changed.hashCode(), NBTImmutableCompound.of(changed.toMutable()).hashCode());
+        Assertions.assertEquals(frozen, NBTImmutableCompound.of(CompressedStreamTools.read(
+            new DataInputStream(new ByteArrayInputStream(bytes)), NBTSizeTracker.UNLIMITED)));
+        Assertions.assertNotEquals(frozen, NBTImmutableCompound.of(original));
+    }
+
+    @Test
+    public void testCachedHashCode() throws Exception {
+        NBTTagCompound compound = CompressedStreamTools.read(
+            new DataInputStream(new ByteArrayInputStream(toBytes(sample()))), NBTSizeTracker.UNLIMITED);
+        int hash = compound.hashCode();
+        Assertions.assertEquals(hash, compound.hashCode());
+
+        // changes deep down are seen from the root
+        compound.getCompoundTag("nested").getCompoundTag("again").getTagList("doubles", 6).removeTag(0);
+        Assertions.assertNotEquals(hash, compound.hashCode());
+        Assertions.assertEquals(compound.copy().hashCode(), compound.hashCode());
+        compound.getTagList("list", 10).getCompound(0).getTagList("names", 8).appendTag(new NBTTagString("x"));
+        Assertions.assertEquals(compound.copy().hashCode(), compound.hashCode());
+        compound.getCompoundTag("nested").keySet().remove("again");
+        Assertions.assertEquals(compound.copy().hashCode(), compound.hashCode());
+
+        // a tag stored twice, and an array changed from outside
+        NBTTagCompound child = new NBTTagCompound();
+        compound.setTag("first", child);
+        compound.getCompoundTag("nested").setTag("second", child);
+        compound.hashCode();
+        child.setInteger("changed", 1);
+        Assertions.assertEquals(compound.copy().hashCode(), compound.hashCode());
+        compound.getIntArray("ints")[0] = 42;
+        Assertions.assertEquals(compound.copy().hashCode(), compound.hashCode());
+
+        NBTTagCompound copy = compound.copyOnWrite();
+        hash = compound.hashCode();
+        copy.getCompoundTag("nested").setInteger("changed", 2);
+        Assertions.assertEquals(hash, compound.hashCode());
+        Assertions.assertEquals(copy.copy().hashCode(), copy.hashCode());
+        Assertions.assertNotEquals(compound, copy);
+
+        // arrays handed in or out keep the hash code of the root cached, and changes through them are still seen
+        NBTTagCompound chunk = sample();
+        chunk.getCompoundTag("nested").setTag("Blocks", new NBTTagByteArray(new byte[4096]));
+        hash = chunk.hashCode();
+        Assertions.assertEquals(hash, cachedHash(chunk));
+        byte[] blocks = chunk.getCompoundTag("nested").getByteArray("Blocks");
+        chunk.getIntArray("ints");
+        Assertions.assertEquals(hash, chunk.hashCode());
+        Assertions.assertEquals(hash, cachedHash(chunk));
+        blocks[0] = 1;
+        Assertions.assertNotEquals(hash, chunk.hashCode());
+        Assertions.assertEquals(chunk.copy().hashCode(), chunk.hashCode());
+        Assertions.assertEquals(chunk.hashCode(), cachedHash(chunk));
+        Assertions.assertNotEquals(sample(), chunk);
+    }
+
+    /**
+     * The hash code a tag has cached, 0 if none.
+     */
+    private static int cachedHash(NBTBase tag) throws ReflectiveOperationException {
+        Field hash = Class.forName("net.minecraft.nbt.NBTBase$NBTMutable").getDeclaredField("hash");
+        hash.setAccessible(true);
+        return hash.getInt(tag);
+    }
+
+    @Test
+    public void testConcurrentCompound() throws Exception {
+        NBTConcurrentCompound compound = new NBTConcurrentCompound(sample());
+        NBTConcurrentList log = new NBTConcurrentList();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; ++i) {
+                    compound.update(c -> c.with("int", new NBTTagInt(c.getInteger("int") + 1)));
+                    String key = "thread" + id;
+                    compound.update("stats", stats -> stats.with(key, new NBTTagInt(stats.getInteger(key) + 1)));
+                    log.appendTag(new NBTTagInt(id));
+                }
+            });
+            threads[t].start();
+        }
+
+        // snapshots taken meanwhile are consistent and can be written
+        for (int i = 0; i < 20; ++i) {
+            NBTTagCompound snapshot = compound.snapshot();
+            Assertions.assertEquals(snapshot, CompressedStreamTools.read(
+                new DataInputStream(new ByteArrayInputStream(toBytes(snapshot))), NBTSizeTracker.UNLIMITED));
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(4003, compound.get().getInteger("int"));
+        Assertions.assertEquals(1000, compound.get().getCompoundTag("stats").getInteger("thread3"));
+        Assertions.assertEquals(4000, log.tagCount());
+        Assertions.assertEquals(sample().getTagList("list", 10), compound.snapshot().getTagList("list", 10));
+    }
+
+    @Test
+    public void testParallelWrite() throws IOException {
+        NBTTagCompound compound = sample();
+        NBTTagList big = new NBTTagList();
+        for (int i = 0; i < 300; ++i) {
+            big.appendTag(sample());
+        }
+        compound.setTag("big", big);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+            CompressedStreamTools.write(compound, new DataOutputStream(parallel), pool);
+            Assertions.assertArrayEquals(toBytes(compound), parallel.toByteArray());
+
+            byte[] compressed = CompressedStreamTools.compress(compound, pool);
+            Assertions.assertEquals(compound, CompressedStreamTools.read(compressed, NBTSizeTracker.UNLIMITED));
+            Assertions.assertEquals(compound, CompressedStreamTools.readCompressed(new ByteArrayInputStream(compressed)));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testReadAll() throws Exception {
+        NBTTagCompound compound = sample();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (CompressionCodec codec : new CompressionCodec[] { CompressionCodec.GZIP, CompressionCodec.ZLIB,
+                CompressionCodec.DEFLATE, CompressionCodec.LZ4 }) {
+                List<ByteBuffer> blobs = new ArrayList<>();
+                for (int i = 0; i < 20; ++i) {
+                    compound.setInteger("index", i);
+                    blobs.add(ByteBuffer.wrap(CompressedStreamTools.compress(compound, codec)));
+                }
+                blobs.set(7, ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+
+                List<CompletableFuture<NBTTagCompound>> results = CompressedStreamTools.readAll(blobs, codec,
+                    () -> new NBTSizeTracker(1 << 20), pool);
+                for (int i = 0; i < 20; ++i) {
+                    if (i == 7) {
+                        Assertions.assertThrows(ExecutionException.class, results.get(i)::get);
+                        continue;
+                    }
+                    compound.setInteger("index", i);
+                    Assertions.assertEquals(compound, results.get(i).get());
+                }
+
+                // over budget before parsing anything
+                Assertions.assertThrows(ExecutionException.class, () -> CompressedStreamTools.readAll(
+                    blobs.subList(0, 1), codec, () -> new NBTSizeTracker(1000), pool).get(0).get());
+            }
+
+            byte[] members = CompressedStreamTools.compress(compound, pool);
+            Assertions.assertEquals(compound, CompressedStreamTools.readAll(List.of(ByteBuffer.wrap(members)),
+                CompressionCodec.GZIP, () -> NBTSizeTracker.UNLIMITED, pool).get(0).get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testReadFile(@TempDir File directory) throws IOException {
+        NBTTagCompound big = new NBTTagCompound();
+        big.setByteArray("data", new byte[3 << 20]); // memory mapped
+        big.setTag("sample", sample());
+
+        for (NBTTagCompound compound : List.of(sample(), big)) {
+            File raw = new File(directory, "raw.dat");
+            CompressedStreamTools.write(compound, raw);
+            Assertions.assertEquals(compound, CompressedStreamTools.read(raw));
+
+            File gzipped = new File(directory, "gzipped.dat");
+            try (OutputStream output = new FileOutputStream(gzipped)) {
+                CompressedStreamTools.writeCompressed(compound, output);
+            }
+            Assertions.assertEquals(compound, CompressedStreamTools.read(gzipped));
+        }
+        Assertions.assertNull(CompressedStreamTools.read(new File(directory, "missing.dat")));
+    }
+
+    @Test
+    public void testSafeWrite(@TempDir File directory) throws IOException {
+        File file = new File(directory, "level.dat");
+        NBTTagCompound compound = sample();
+
+        CompressedStreamTools.safeWrite(new NBTTagCompound(), file);
+        CompressedStreamTools.safeWrite(compound, file);
+        Assertions.assertEquals(compound, CompressedStreamTools.read(file));
+        Assertions.assertEquals(compound, CompressedStreamTools.readMapped(file, NBTSizeTracker.UNLIMITED));
+        Assertions.assertFalse(new File(directory, "level.dat_tmp").exists());
+
+        Map<File, NBTTagCompound> files = new HashMap<>();
+        for (int i = 0; i < 16; ++i) {
+            NBTTagCompound player = new NBTTagCompound();
+            player.setInteger("id", i);
+            files.put(new File(directory, i + ".dat"), player);
+        }
+        CompressedStreamTools.safeWrite(files);
+        for (Map.Entry<File, NBTTagCompound> entry : files.entrySet()) {
+            Assertions.assertEquals(entry.getValue(), CompressedStreamTools.read(entry.getKey()));
+        }
+
+        // a move that fails after another has succeeded is reported, and no temporary file is left behind
+        File blocked = new File(directory, "blocked.dat");
+        Assertions.assertTrue(new File(blocked, "child").mkdirs());
+        Map<File, NBTTagCompound> failing = new LinkedHashMap<>();
+        failing.put(file, new NBTTagCompound());
+        failing.put(blocked, compound);
+        IOException e = Assertions.assertThrows(IOException.class, () -> CompressedStreamTools.safeWrite(failing));
+        Assertions.assertTrue(e.getMessage().startsWith("Replaced"), e.getMessage());
+        Assertions.assertEquals(new NBTTagCompound(), CompressedStreamTools.read(file));
+        Assertions.assertFalse(new File(directory, "blocked.dat_tmp").exists());
+    }
+
+    @Test
+    public void testIOService(@TempDir File directory) throws Exception {
+        File file = new File(directory, "player.dat");
+        List<Runnable> tasks = new ArrayList<>();
+        NBTIOService service = new NBTIOService(tasks::add, 4);
+
+        NBTTagCompound compound = new NBTTagCompound();
+        compound.setInteger("saves", 1);
+        CompletableFuture<Void> first = service.save(file, compound);
+        compound.setInteger("saves", 2);
+        CompletableFuture<Void> second = service.save(file, compound);
+        compound.setInteger("saves", 3); // after the snapshot
+
+        // coalesced into a single write, which loads see before it is done
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals(1, tasks.size());
+        Assertions.assertEquals(2, service.load(file).get().getInteger("saves"));
+
+        tasks.remove(0).run();
+        Assertions.assertTrue(first.isDone());
+        Assertions.assertEquals(2, CompressedStreamTools.read(file).getInteger("saves"));
+
+        // concurrent loads share a read but not the compound
+        CompletableFuture<NBTTagCompound> load = service.load(file);
+        CompletableFuture<NBTTagCompound> shared = service.load(file);
+        Assertions.assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        Assertions.assertEquals(load.get(), shared.get());
+        Assertions.assertNotSame(load.get(), shared.get());
+
+        service.close();
+        Assertions.assertThrows(IllegalStateException.class, () -> service.save(file, compound));
+    }
+
+    @Test
+    public void testReusedCodecs() throws IOException {
+        NBTTagCompound big = new NBTTagCompound();
+        byte[] noise = new byte[300_000];
+        new Random(1).nextBytes(noise);
+        big.setByteArray("noise", noise); // grows the reused buffers
+        big.setTag("sample", sample());
+
+        for (CompressionCodec codec : List.of(CompressionCodec.GZIP, CompressionCodec.ZLIB, CompressionCodec.DEFLATE,
+            CompressionCodec.gzip(1, 512), CompressionCodec.lz4(1 << 16))) {
+            for (NBTTagCompound compound : List.of(big, sample(), big)) {
+                byte[] bytes = CompressedStreamTools.compress(compound, codec);
+                Assertions.assertEquals(compound, CompressedStreamTools.read(bytes, codec, NBTSizeTracker.UNLIMITED));
+
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                CompressedStreamTools.writeCompressed(compound, output, codec);
+                Assertions.assertArrayEquals(bytes, output.toByteArray());
+                Assertions.assertEquals(compound,
+                    CompressedStreamTools.readCompressed(new ByteArrayInputStream(bytes), codec));
+            }
+        }
+
+        // still plain gzip to other readers
+        byte[] bytes = CompressedStreamTools.compress(big);
+        Assertions.assertEquals(big, CompressedStreamTools.read(new DataInputStream(
+            new GZIPInputStream(new ByteArrayInputStream(bytes)))));
+    }
+}
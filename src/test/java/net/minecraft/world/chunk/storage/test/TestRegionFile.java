@@ -0,0 +1,64 @@
+package net.minecraft.world.chunk.storage.test;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+import net.minecraft.world.chunk.storage.RegionFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+public class TestRegionFile {
+
+    /**
+     * A chunk spanning a few sectors once compressed.
+     */
+    static NBTTagCompound big() {
+        NBTTagCompound compound = new NBTTagCompound();
+        byte[] blocks = new byte[16384];
+        new Random(1).nextBytes(blocks);
+        compound.setByteArray("Blocks", blocks);
+        NBTTagList names = new NBTTagList();
+        for (int i = 0; i < 100; ++i) {
+            names.appendTag(new NBTTagString("name" + i));
+        }
+        compound.setTag("names", names);
+        return compound;
+    }
+
+    @Test
+    public void testRegionFile(@TempDir Path directory) throws IOException {
+        File file = directory.resolve("r.0.0.mca").toFile();
+        NBTTagCompound big = big();
+        NBTTagCompound small = new NBTTagCompound();
+        small.setString("id", "small");
+
+        try (RegionFile region = new RegionFile(file)) {
+            for (int i = 0; i < 64; ++i) {
+                region.writeChunk(i, i / 32, i % 3 == 0 ? big : small);
+            }
+            // grown, shrunk and removed chunks leave gaps behind
+            region.writeChunk(1, 0, big);
+            region.writeChunk(3, 0, small);
+            region.removeChunk(6, 0);
+            Assertions.assertEquals(big, region.readChunk(1, 0));
+            Assertions.assertEquals(small, region.readChunk(3, 0));
+            Assertions.assertNull(region.readChunk(6, 0));
+            Assertions.assertTrue(region.compact() > 0);
+        }
+
+        try (RegionFile region = new RegionFile(file)) {
+            for (int i = 0; i < 64; ++i) {
+                NBTTagCompound expected = i == 6 ? null : i == 1 || i % 3 == 0 && i != 3 ? big : small;
+                Assertions.assertEquals(expected, region.readChunk(i, i / 32));
+            }
+            Assertions.assertTrue(region.getTimestamp(5, 0) > 0);
+            Assertions.assertEquals(0, region.compact());
+        }
+    }
+}